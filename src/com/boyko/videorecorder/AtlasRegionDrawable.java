@@ -0,0 +1,61 @@
+package com.boyko.videorecorder;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Draws one region of a {@link ThumbnailAtlas} sheet, stretched to its
+ * bounds. Its intrinsic size is the region's, so image views scale and crop
+ * it like a bitmap of its own.
+ */
+public class AtlasRegionDrawable extends Drawable {
+
+	private final Bitmap sheet;
+	private final Rect region;
+	private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+	public AtlasRegionDrawable(Bitmap sheet, Rect region) {
+		this.sheet = sheet;
+		this.region = region;
+	}
+
+	@Override
+	public void draw(Canvas canvas) {
+		canvas.drawBitmap(sheet, region, getBounds(), paint);
+	}
+
+	@Override
+	public int getIntrinsicWidth() {
+		return region.width();
+	}
+
+	@Override
+	public int getIntrinsicHeight() {
+		return region.height();
+	}
+
+	@Override
+	public void setAlpha(int alpha) {
+		if (paint.getAlpha() != alpha) {
+			paint.setAlpha(alpha);
+			invalidateSelf();
+		}
+	}
+
+	@Override
+	public void setColorFilter(ColorFilter cf) {
+		paint.setColorFilter(cf);
+		invalidateSelf();
+	}
+
+	@Override
+	public int getOpacity() {
+		return paint.getAlpha() < 255 || paint.getColorFilter() != null ? PixelFormat.TRANSLUCENT
+				: PixelFormat.OPAQUE;
+	}
+}
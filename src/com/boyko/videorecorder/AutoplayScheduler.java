@@ -0,0 +1,154 @@
+package com.boyko.videorecorder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Decides which visible tiles loop their clips inline. At most a budget of
+ * decoders run at once; when more tiles are visible than the budget allows,
+ * each tile plays for a time slice and then yields to the tile that waited
+ * longest. Tiles that leave the viewport are stopped right away.
+ * <p>
+ * This class has no Android dependencies: tiles are identified by their
+ * stable item ids, the actual players sit behind {@link Decoder} and time is
+ * passed in, so the policy can be driven by a fake decoder and clock. Not
+ * thread safe.
+ */
+public class AutoplayScheduler {
+
+	/**
+	 * Starts and stops the clip of a tile.
+	 */
+	public interface Decoder {
+		/**
+		 * @return false if the tile has no clip to play, then it is not
+		 *         counted against the budget.
+		 */
+		boolean start(long tileId);
+
+		void stop(long tileId);
+	}
+
+	private final Decoder decoder;
+	private final long sliceMillis;
+	private int budget;
+	/** Oldest first */
+	private final List<Long> playing = new ArrayList<Long>();
+	private final HashMap<Long, Long> startTimes = new HashMap<Long, Long>();
+	/** Visible tiles not playing, next first */
+	private final LinkedList<Long> waiting = new LinkedList<Long>();
+
+	/**
+	 * @param budget
+	 *            Number of decoders that may run at once.
+	 * @param sliceMillis
+	 *            How long a tile plays before yielding to a waiting one.
+	 */
+	public AutoplayScheduler(Decoder decoder, int budget, long sliceMillis) {
+		this.decoder = decoder;
+		this.budget = Math.max(0, budget);
+		this.sliceMillis = sliceMillis;
+	}
+
+	public int getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Changes the budget, stopping the tiles that played longest if it
+	 * shrinks.
+	 */
+	public void setBudget(int budget, long now) {
+		this.budget = Math.max(0, budget);
+		while (playing.size() > this.budget)
+			requeue(playing.get(0));
+		fill(now);
+	}
+
+	/**
+	 * Sets the tiles in the viewport, in the order they should get a decoder
+	 * first. Tiles no longer in it stop at once.
+	 */
+	public void setVisibleTiles(Collection<Long> tileIds, long now) {
+		for (int i = playing.size() - 1; i >= 0; i--) {
+			final Long id = playing.get(i);
+			if (!tileIds.contains(id)) {
+				playing.remove(i);
+				startTimes.remove(id);
+				decoder.stop(id);
+			}
+		}
+		waiting.retainAll(tileIds);
+		for (Long id : tileIds) {
+			if (!playing.contains(id) && !waiting.contains(id))
+				waiting.add(id);
+		}
+		fill(now);
+	}
+
+	/**
+	 * Rotates playback: tiles that used up their slice yield to waiting
+	 * ones. Call periodically.
+	 */
+	public void tick(long now) {
+		// Only tiles that waited before this tick take over, so a tile that
+		// just yielded is not restarted right away
+		int swaps = waiting.size();
+		int i = 0;
+		while (i < playing.size() && swaps > 0) {
+			final Long id = playing.get(i);
+			if (now - startTimes.get(id) >= sliceMillis) {
+				requeue(id);
+				fill(now);
+				swaps--;
+			} else {
+				i++;
+			}
+		}
+	}
+
+	/**
+	 * Stops every tile and forgets the viewport.
+	 */
+	public void clear() {
+		for (Long id : playing)
+			decoder.stop(id);
+		playing.clear();
+		startTimes.clear();
+		waiting.clear();
+	}
+
+	/**
+	 * @return the playing tiles, oldest first.
+	 */
+	public List<Long> getPlaying() {
+		return Collections.unmodifiableList(playing);
+	}
+
+	/**
+	 * Stops a playing tile and queues it behind the waiting ones.
+	 */
+	private void requeue(Long id) {
+		playing.remove(id);
+		startTimes.remove(id);
+		decoder.stop(id);
+		waiting.addLast(id);
+	}
+
+	private void fill(long now) {
+		// Each waiting tile is tried at most once, so tiles that cannot
+		// start do not loop
+		int tries = waiting.size();
+		while (playing.size() < budget && tries-- > 0) {
+			final Long id = waiting.removeFirst();
+			if (decoder.start(id)) {
+				playing.add(id);
+				startTimes.put(id, now);
+			}
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package com.boyko.videorecorder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+/**
+ * Bitmaps that are no longer shown, kept for reuse so decoding a tile does
+ * not allocate a new bitmap each time. Bitmaps are bucketed by exact size and
+ * config, which is what {@link BitmapFactory.Options#inBitmap} requires
+ * before KitKat; from KitKat any large enough bitmap can be decoded into. The
+ * pool is bounded in bytes and drops the oldest bitmaps first.
+ * <p>
+ * Only bitmaps nobody draws any more may be put in the pool.
+ */
+public class BitmapPool {
+
+	private final long maxBytes;
+	private long size;
+	private final HashMap<String, ArrayList<Bitmap>> buckets = new HashMap<String, ArrayList<Bitmap>>();
+	/** Oldest first */
+	private final LinkedList<Bitmap> order = new LinkedList<Bitmap>();
+
+	private int hitCount;
+	private int missCount;
+
+	public BitmapPool(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Adds a bitmap that is no longer used. Immutable bitmaps cannot be
+	 * reused and are ignored; a bitmap larger than the whole pool is
+	 * recycled instead of evicting everything else.
+	 */
+	public synchronized void put(Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || order.contains(bitmap))
+			return;
+		if (getBytes(bitmap) > maxBytes) {
+			bitmap.recycle();
+			return;
+		}
+		final String key = getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+		ArrayList<Bitmap> bucket = buckets.get(key);
+		if (bucket == null) {
+			bucket = new ArrayList<Bitmap>();
+			buckets.put(key, bucket);
+		}
+		bucket.add(bitmap);
+		order.add(bitmap);
+		size += getBytes(bitmap);
+		trim();
+	}
+
+	/**
+	 * @return a pooled bitmap of exactly that size and config, with
+	 *         undefined content, or null.
+	 */
+	public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+		return count(takeExact(width, height, config));
+	}
+
+	/**
+	 * Sets {@link BitmapFactory.Options#inBitmap} for a decode of the given
+	 * decoded size, if a pooled bitmap can take it. Also makes the result
+	 * mutable so it can return to the pool later. If the decode fails with an
+	 * IllegalArgumentException, pass the options to {@link #onDecodeFailed}
+	 * and decode again.
+	 */
+	public synchronized void setInBitmap(BitmapFactory.Options options, int width, int height) {
+		options.inMutable = true;
+		final Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig
+				: Bitmap.Config.ARGB_8888;
+		Bitmap bitmap = null;
+		// Before KitKat only sizes decoded without sampling can be reused
+		if (options.inSampleSize <= 1 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+			bitmap = takeExact(width, height, config);
+		if (bitmap == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+			bitmap = takeAtLeast(width * height * getBytesPerPixel(config));
+		options.inBitmap = count(bitmap);
+	}
+
+	/**
+	 * Takes back the bitmap a failed decode could not use.
+	 */
+	public void onDecodeFailed(BitmapFactory.Options options) {
+		if (options.inBitmap != null) {
+			put(options.inBitmap);
+			options.inBitmap = null;
+		}
+	}
+
+	/**
+	 * @return the share of requests served from the pool, from 0 to 1.
+	 */
+	public synchronized float getHitRate() {
+		final int total = hitCount + missCount;
+		return total == 0 ? 0 : (float) hitCount / total;
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Recycles every pooled bitmap.
+	 */
+	public synchronized void clear() {
+		for (Bitmap bitmap : order)
+			bitmap.recycle();
+		order.clear();
+		buckets.clear();
+		size = 0;
+	}
+
+	private Bitmap count(Bitmap bitmap) {
+		if (bitmap != null)
+			hitCount++;
+		else
+			missCount++;
+		return bitmap;
+	}
+
+	private Bitmap takeExact(int width, int height, Bitmap.Config config) {
+		final ArrayList<Bitmap> bucket = buckets.get(getKey(width, height, config));
+		if (bucket == null || bucket.isEmpty())
+			return null;
+		final Bitmap bitmap = bucket.remove(bucket.size() - 1);
+		order.remove(bitmap);
+		size -= getBytes(bitmap);
+		return bitmap;
+	}
+
+	@TargetApi(Build.VERSION_CODES.KITKAT)
+	private Bitmap takeAtLeast(int bytes) {
+		for (Bitmap bitmap : order) {
+			if (bitmap.getAllocationByteCount() >= bytes) {
+				buckets.get(getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig())).remove(bitmap);
+				order.remove(bitmap);
+				size -= getBytes(bitmap);
+				return bitmap;
+			}
+		}
+		return null;
+	}
+
+	private void trim() {
+		while (size > maxBytes && !order.isEmpty()) {
+			final Bitmap bitmap = order.removeFirst();
+			buckets.get(getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig())).remove(bitmap);
+			size -= getBytes(bitmap);
+			bitmap.recycle();
+		}
+	}
+
+	private static String getKey(int width, int height, Bitmap.Config config) {
+		return width + "x" + height + ":" + config;
+	}
+
+	@TargetApi(Build.VERSION_CODES.KITKAT)
+	private static int getBytes(Bitmap bitmap) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+			return bitmap.getAllocationByteCount();
+		return bitmap.getByteCount();
+	}
+
+	private static int getBytesPerPixel(Bitmap.Config config) {
+		if (config == Bitmap.Config.ARGB_8888)
+			return 4;
+		if (config == Bitmap.Config.ALPHA_8)
+			return 1;
+		return 2;
+	}
+}
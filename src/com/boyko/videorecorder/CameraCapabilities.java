@@ -0,0 +1,128 @@
+package com.boyko.videorecorder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Snapshot of what one camera supports: preview and video sizes, preview FPS
+ * ranges, exposure compensation limits and the camcorder profiles available
+ * for it. Sizes and ranges are kept in flat int arrays of pairs so the
+ * snapshot is compact to store and cheap to scan.
+ * <p>
+ * This class has no Android dependencies; {@link CapabilityCache} builds it
+ * from {@code Camera.Parameters} and persists it.
+ */
+public class CameraCapabilities {
+
+	/** Bumped whenever the stored layout changes */
+	static final int FORMAT_VERSION = 1;
+
+	/** Number of ints stored per camcorder profile */
+	public static final int PROFILE_FIELDS = 5;
+	public static final int PROFILE_QUALITY = 0;
+	public static final int PROFILE_WIDTH = 1;
+	public static final int PROFILE_HEIGHT = 2;
+	public static final int PROFILE_FRAME_RATE = 3;
+	public static final int PROFILE_BIT_RATE = 4;
+
+	public final int cameraId;
+	public final int facing;
+	public final int orientation;
+	/** Preview sizes as (width, height) pairs */
+	public final int[] previewSizes;
+	/**
+	 * Video sizes as (width, height) pairs. Empty when the camera records at
+	 * preview sizes.
+	 */
+	public final int[] videoSizes;
+	/** Preview FPS ranges as (min, max) pairs, in frames per 1000 seconds */
+	public final int[] fpsRanges;
+	public final int minExposure;
+	public final int maxExposure;
+	public final float exposureStep;
+	/**
+	 * Supported camcorder profiles, {@link #PROFILE_FIELDS} ints each:
+	 * quality, width, height, frame rate, video bit rate.
+	 */
+	public final int[] profiles;
+
+	public CameraCapabilities(int cameraId, int facing, int orientation, int[] previewSizes, int[] videoSizes,
+			int[] fpsRanges, int minExposure, int maxExposure, float exposureStep, int[] profiles) {
+		this.cameraId = cameraId;
+		this.facing = facing;
+		this.orientation = orientation;
+		this.previewSizes = previewSizes;
+		this.videoSizes = videoSizes;
+		this.fpsRanges = fpsRanges;
+		this.minExposure = minExposure;
+		this.maxExposure = maxExposure;
+		this.exposureStep = exposureStep;
+		this.profiles = profiles;
+	}
+
+	/**
+	 * @return index of the profile with the given quality in
+	 *         {@link #profiles}, counted in profiles, or -1.
+	 */
+	public int findProfile(int quality) {
+		for (int i = 0; i < profiles.length; i += PROFILE_FIELDS) {
+			if (profiles[i + PROFILE_QUALITY] == quality)
+				return i / PROFILE_FIELDS;
+		}
+		return -1;
+	}
+
+	public int getProfileCount() {
+		return profiles.length / PROFILE_FIELDS;
+	}
+
+	public int getProfileField(int index, int field) {
+		return profiles[index * PROFILE_FIELDS + field];
+	}
+
+	public int clampExposure(int exposure) {
+		return Math.max(minExposure, Math.min(maxExposure, exposure));
+	}
+
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(cameraId);
+		out.writeInt(facing);
+		out.writeInt(orientation);
+		writeInts(out, previewSizes);
+		writeInts(out, videoSizes);
+		writeInts(out, fpsRanges);
+		out.writeInt(minExposure);
+		out.writeInt(maxExposure);
+		out.writeFloat(exposureStep);
+		writeInts(out, profiles);
+	}
+
+	public static CameraCapabilities readFrom(DataInputStream in) throws IOException {
+		int cameraId = in.readInt();
+		int facing = in.readInt();
+		int orientation = in.readInt();
+		int[] previewSizes = readInts(in);
+		int[] videoSizes = readInts(in);
+		int[] fpsRanges = readInts(in);
+		int minExposure = in.readInt();
+		int maxExposure = in.readInt();
+		float exposureStep = in.readFloat();
+		int[] profiles = readInts(in);
+		return new CameraCapabilities(cameraId, facing, orientation, previewSizes, videoSizes, fpsRanges,
+				minExposure, maxExposure, exposureStep, profiles);
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		out.writeShort(values.length);
+		for (int value : values)
+			out.writeInt(value);
+	}
+
+	private static int[] readInts(DataInputStream in) throws IOException {
+		int[] values = new int[in.readUnsignedShort()];
+		for (int i = 0; i < values.length; i++)
+			values[i] = in.readInt();
+		return values;
+	}
+}
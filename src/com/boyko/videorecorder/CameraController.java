@@ -0,0 +1,217 @@
+package com.boyko.videorecorder;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.media.CamcorderProfile;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import com.example.android.common.media.CameraHelper;
+
+/**
+ * Owns the thread every {@link android.hardware.Camera} call runs on. Opening,
+ * parameter changes, preview control, lock/unlock and release are posted to a
+ * single {@link HandlerThread}, so they never block the UI thread and never
+ * overlap each other. Results are delivered on the main thread.
+ * <p>
+ * Cameras opened here deliver their own callbacks (preview frames, errors) on
+ * the camera thread as well.
+ */
+public class CameraController {
+
+	private static final String TAG = "CameraController";
+
+	/**
+	 * Receives the result of an asynchronous camera operation on the main
+	 * thread.
+	 */
+	public interface Callback<T> {
+		/**
+		 * @param result
+		 *            The result, or null if the operation failed.
+		 */
+		void onResult(T result);
+	}
+
+	private final HandlerThread thread;
+	private final Handler handler;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	public CameraController() {
+		thread = new HandlerThread(TAG);
+		thread.start();
+		handler = new Handler(thread.getLooper());
+	}
+
+	/**
+	 * Opens the camera with the given id.
+	 */
+	public void open(final int cameraId, Callback<Camera> callback) {
+		call(new Callable<Camera>() {
+			@Override
+			public Camera call() {
+				return Camera.open(cameraId);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Opens the default front facing camera, see
+	 * {@link CameraHelper#getDefaultFrontFacingCameraInstance()}.
+	 */
+	public void openFrontFacing(Callback<Camera> callback) {
+		call(new Callable<Camera>() {
+			@Override
+			public Camera call() {
+				return CameraHelper.getDefaultFrontFacingCameraInstance();
+			}
+		}, callback);
+	}
+
+	/**
+	 * Opens the default back facing camera, see
+	 * {@link CameraHelper#getDefaultBackFacingCameraInstance()}.
+	 */
+	public void openBackFacing(Callback<Camera> callback) {
+		call(new Callable<Camera>() {
+			@Override
+			public Camera call() {
+				return CameraHelper.getDefaultBackFacingCameraInstance();
+			}
+		}, callback);
+	}
+
+	/**
+	 * Opens the default camera, see
+	 * {@link CameraHelper#getDefaultCameraInstance()}.
+	 */
+	public void openDefault(Callback<Camera> callback) {
+		call(new Callable<Camera>() {
+			@Override
+			public Camera call() {
+				return CameraHelper.getDefaultCameraInstance();
+			}
+		}, callback);
+	}
+
+	/**
+	 * Stops the preview and releases the camera. If a preview texture is
+	 * given it is released too, once the camera no longer draws into it.
+	 */
+	public void release(final Camera camera, final SurfaceTexture texture) {
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (camera != null) {
+					camera.stopPreview();
+					camera.release();
+				}
+				if (texture != null)
+					texture.release();
+			}
+		});
+	}
+
+	/**
+	 * Sets the preview size and FPS range of a solved {@link CaptureConfig}.
+	 * The caller applies the parameters with {@link Camera#setParameters}.
+	 */
+	public static void configure(Camera.Parameters parameters, CaptureConfig config) {
+		parameters.setPreviewSize(config.previewWidth, config.previewHeight);
+		if (config.maxFps != 0)
+			parameters.setPreviewFpsRange(config.minFps, config.maxFps);
+		parameters.setRecordingHint(true);
+	}
+
+	/**
+	 * @return the camcorder profile of a solved {@link CaptureConfig}, set to
+	 *         its video size, frame rate and bit rate.
+	 */
+	public static CamcorderProfile getProfile(int cameraId, CaptureConfig config) {
+		CamcorderProfile profile = CamcorderProfile.get(cameraId, config.profileQuality);
+		profile.videoFrameWidth = config.videoWidth;
+		profile.videoFrameHeight = config.videoHeight;
+		profile.videoFrameRate = config.frameRate;
+		if (config.bitRate != 0)
+			profile.videoBitRate = config.bitRate;
+		return profile;
+	}
+
+	/**
+	 * Runs a camera operation on the camera thread.
+	 */
+	public void post(Runnable operation) {
+		handler.post(operation);
+	}
+
+	/**
+	 * Runs a camera operation on the camera thread and hands its result to the
+	 * callback on the main thread. A failing operation is logged and reported
+	 * as a null result.
+	 */
+	public <T> void call(final Callable<T> operation, final Callback<T> callback) {
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				T result = null;
+				try {
+					result = operation.call();
+				} catch (Exception e) {
+					Logger.e(TAG, "Camera operation failed", e);
+				}
+				if (callback == null)
+					return;
+				final T delivered = result;
+				mainHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						callback.onResult(delivered);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * @return true if called on the camera thread.
+	 */
+	public boolean isCameraThread() {
+		return Looper.myLooper() == thread.getLooper();
+	}
+
+	/**
+	 * Blocks until every operation posted so far has run. Meant for teardown.
+	 */
+	public void waitForPending() {
+		if (isCameraThread())
+			return;
+		final CountDownLatch latch = new CountDownLatch(1);
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		});
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Runs the pending operations and stops the camera thread.
+	 */
+	public void quit() {
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				thread.quit();
+			}
+		});
+	}
+}
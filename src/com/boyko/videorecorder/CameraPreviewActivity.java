@@ -16,8 +16,8 @@
 
 package com.boyko.videorecorder;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.List;
 
 import android.app.Activity;
 import android.hardware.Camera;
@@ -28,8 +28,8 @@ import android.hardware.SensorManager;
 import android.media.CamcorderProfile;
 import android.media.MediaRecorder;
 import android.media.MediaRecorder.OnInfoListener;
-import android.os.AsyncTask;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
@@ -38,15 +38,24 @@ import android.view.WindowManager;
 import com.example.android.common.media.CameraHelper;
 
 public class CameraPreviewActivity extends Activity {
+
+	private static final String TAG = "CameraPreviewActivity";
+
 	private Preview preview;
 	private Camera camera;
+	private int cameraId = -1;
+	private CameraController cameraController;
 
 	private MediaRecorder mediaRecorder;
+	/** Output of the recorder, owned by the camera thread */
+	private File outputFile;
 	protected boolean isRecording;
+	private boolean isResumed;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
+		Logger.init(this);
 	       getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 			setContentView(R.layout.activity_main);
 
@@ -61,7 +70,8 @@ public class CameraPreviewActivity extends Activity {
 				@Override
 				public void onSensorChanged(SensorEvent event) {
 					float f = event.values[0];
-					Logger.d(f + "/" + maxvalue);
+					if (Logger.DEBUG && Logger.isLoggable(TAG, Log.DEBUG))
+						Logger.d(TAG, "light %s/%s", f, maxvalue);
 					if(preview != null){
 						int exp;
 						if(f<20)
@@ -80,9 +90,11 @@ public class CameraPreviewActivity extends Activity {
 			}, lightSensor, SensorManager.SENSOR_DELAY_NORMAL);
 		}
 
+		cameraController = new CameraController();
+
 		// Create a RelativeLayout container that will hold a SurfaceView,
 		// and set it as the content of our activity.
-		preview = new Preview(this);
+		preview = new Preview(this, cameraController);
 		((ViewGroup) findViewById(R.id.preview)).addView(preview);
 		preview.setOnClickListener(new OnClickListener() {
 
@@ -90,17 +102,13 @@ public class CameraPreviewActivity extends Activity {
 			public void onClick(View v) {
 				if (isRecording) {
 					Logger.d("STOP RECORD");
-					// stop recording and release camera
-					mediaRecorder.stop(); // stop the recording
-					releaseMediaRecorder(); // release the MediaRecorder object
-					camera.lock(); // take camera access back from
-									// MediaRecorder
-
 					// inform the user that recording has stopped
 					isRecording = false;
-				} else {
+					cameraController.post(new StopRecording(camera));
+				} else if (camera != null) {
 					Logger.d("START RECORD");
-					new MediaPrepareTask().execute();
+					isRecording = true;
+					cameraController.post(new StartRecording(camera, cameraId));
 				}
 			}
 		});
@@ -109,47 +117,67 @@ public class CameraPreviewActivity extends Activity {
 	@Override
 	protected void onResume() {
 		super.onResume();
+		isResumed = true;
+
+		// Open the front facing camera, or the first rear facing one.
+		int frontId = CameraHelper.getDefaultFrontFacingCameraId();
+		final int id = frontId != -1 ? frontId : CameraHelper.getDefaultBackFacingCameraId();
+		if (id == -1)
+			return;
+		cameraController.open(id, new CameraController.Callback<Camera>() {
+			@Override
+			public void onResult(Camera result) {
+				onCameraOpened(result, id);
+			}
+		});
+	}
 
-		// Open the default i.e. the first rear facing camera.
-		camera = CameraHelper.getDefaultFrontFacingCameraInstance();
-		if (camera == null)
-			camera = CameraHelper.getDefaultCameraInstance();
-		preview.setCamera(camera);
+	private void onCameraOpened(Camera result, int id) {
+		if (result == null)
+			return;
+		if (!isResumed) {
+			// Paused while the camera was opening
+			cameraController.release(result, null);
+			return;
+		}
+		camera = result;
+		cameraId = id;
+		preview.setCamera(camera, cameraId);
 	}
 
 	@Override
 	protected void onPause() {
 		super.onPause();
+		isResumed = false;
 		if (isRecording) {
-			mediaRecorder.stop();
-			releaseMediaRecorder();
-			camera.lock();
+			isRecording = false;
+			cameraController.post(new StopRecording(camera));
 		}
 		// Because the Camera object is a shared resource, it's very
 		// important to release it when the activity is paused.
 		if (camera != null) {
-			preview.setCamera(null);
-			camera.release();
+			preview.setCamera(null, -1);
+			cameraController.release(camera, null);
 			camera = null;
 		}
 	}
 
-	void prepareRecorder() {
-		CamcorderProfile profile = CamcorderProfile.get(CamcorderProfile.QUALITY_HIGH);
-		Camera.Parameters parameters = camera.getParameters();
-
-		List<Camera.Size> mSupportedPreviewSizes = parameters.getSupportedPreviewSizes();
-		Camera.Size optimalSize = CameraHelper.getOptimalPreviewSize(mSupportedPreviewSizes, preview.getWidth(),
-				preview.getHeight());
-
-		// Use the same size for recording profile.
-		profile.videoFrameWidth = optimalSize.width;
-		profile.videoFrameHeight = optimalSize.height;
-
-		// likewise for the camera object itself.
-		parameters.setPreviewSize(profile.videoFrameWidth, profile.videoFrameHeight);
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		cameraController.quit();
+	}
 
-		camera.setParameters(parameters);
+	/**
+	 * Runs on the camera thread.
+	 */
+	void prepareRecorder(Camera camera, int cameraId) {
+		CaptureConfig config = preview.getCaptureConfig();
+		if (config == null)
+			return;
+		// The preview already runs with the same capture config, so the
+		// camera needs no parameter change here.
+		CamcorderProfile profile = CameraController.getProfile(cameraId, config);
 
 		// BEGIN_INCLUDE (configure_media_recorder)
 		mediaRecorder = new MediaRecorder();
@@ -167,7 +195,8 @@ public class CameraPreviewActivity extends Activity {
 		mediaRecorder.setProfile(profile);
 
 		// Step 4: Set output file
-		mediaRecorder.setOutputFile(CameraHelper.getOutputMediaFile(CameraHelper.MEDIA_TYPE_VIDEO).toString());
+		outputFile = CameraHelper.getOutputMediaFile(CameraHelper.MEDIA_TYPE_VIDEO);
+		mediaRecorder.setOutputFile(outputFile.toString());
 		// END_INCLUDE (configure_media_recorder)
 
 		mediaRecorder.setOnInfoListener(new OnInfoListener() {
@@ -191,14 +220,26 @@ public class CameraPreviewActivity extends Activity {
 			mediaRecorder.prepare();
 		} catch (IllegalStateException e) {
 			Logger.d("IllegalStateException preparing MediaRecorder: " + e.getMessage());
-			releaseMediaRecorder();
+			releaseMediaRecorder(camera);
+			deleteOutputFile();
 		} catch (IOException e) {
 			Logger.d("IOException preparing MediaRecorder: " + e.getMessage());
-			releaseMediaRecorder();
+			releaseMediaRecorder(camera);
+			deleteOutputFile();
+		}
+	}
+
+	/**
+	 * Runs on the camera thread.
+	 */
+	private void deleteOutputFile() {
+		if (outputFile != null) {
+			outputFile.delete();
+			outputFile = null;
 		}
 	}
 
-	private void releaseMediaRecorder() {
+	private void releaseMediaRecorder(Camera camera) {
 		if (mediaRecorder != null) {
 			// clear recorder configuration
 			mediaRecorder.reset();
@@ -213,21 +254,68 @@ public class CameraPreviewActivity extends Activity {
 	}
 
 	/**
-	 * Asynchronous task for preparing the {@link android.media.MediaRecorder}
-	 * since it's a long blocking operation.
+	 * Camera thread operation preparing and starting the
+	 * {@link android.media.MediaRecorder} since it's a long blocking operation.
 	 */
-	class MediaPrepareTask extends AsyncTask<Void, Void, Void> {
+	class StartRecording implements Runnable {
+		private final Camera camera;
+		private final int cameraId;
+
+		StartRecording(Camera camera, int cameraId) {
+			this.camera = camera;
+			this.cameraId = cameraId;
+		}
 
 		@Override
-		protected Void doInBackground(Void... voids) {
-			prepareRecorder();
-			mediaRecorder.start();
-			isRecording = true;
-			return null;
+		public void run() {
+			prepareRecorder(camera, cameraId);
+			if (mediaRecorder != null) {
+				try {
+					mediaRecorder.start();
+					return;
+				} catch (RuntimeException e) {
+					Logger.e(TAG, "Cannot start recording", e);
+					releaseMediaRecorder(camera);
+					deleteOutputFile();
+				}
+			}
+			runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					isRecording = false;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Camera thread operation stopping the recording and taking the camera
+	 * back.
+	 */
+	class StopRecording implements Runnable {
+		private final Camera camera;
+
+		StopRecording(Camera camera) {
+			this.camera = camera;
 		}
 
 		@Override
-		protected void onPostExecute(Void result) {
+		public void run() {
+			if (mediaRecorder == null)
+				return;
+			// stop recording and release camera
+			boolean ok = true;
+			try {
+				mediaRecorder.stop();
+			} catch (RuntimeException e) {
+				// Nothing was recorded, the clip is too short
+				ok = false;
+			}
+			// release the MediaRecorder object and take the camera back
+			releaseMediaRecorder(camera);
+			if (!ok)
+				deleteOutputFile();
+			outputFile = null;
 		}
 	}
 
@@ -0,0 +1,177 @@
+package com.boyko.videorecorder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import android.content.Context;
+import android.hardware.Camera;
+import android.media.CamcorderProfile;
+import android.os.Build;
+import android.util.SparseArray;
+
+/**
+ * Keeps one {@link CameraCapabilities} per camera id, in memory and in a small
+ * file per camera under the app's files directory. A file is only trusted
+ * when it was written on the same build ({@link Build#FINGERPRINT}), so an OS
+ * update re-queries the HAL once. After that, cold starts read the file and do
+ * not need {@code Camera.getParameters()} to pick sizes, FPS ranges or
+ * profiles.
+ */
+public class CapabilityCache {
+
+	private static final String TAG = "CapabilityCache";
+	private static final int MAGIC = 0x43415053; // "CAPS"
+
+	/** Profiles probed for every camera, best first */
+	private static final int[] QUALITIES = { CamcorderProfile.QUALITY_HIGH, CamcorderProfile.QUALITY_1080P,
+			CamcorderProfile.QUALITY_720P, CamcorderProfile.QUALITY_480P, CamcorderProfile.QUALITY_CIF,
+			CamcorderProfile.QUALITY_QVGA, CamcorderProfile.QUALITY_LOW };
+
+	private static CapabilityCache instance;
+
+	private final File dir;
+	private final SparseArray<CameraCapabilities> memory = new SparseArray<CameraCapabilities>();
+
+	public static synchronized CapabilityCache getInstance(Context context) {
+		if (instance == null)
+			instance = new CapabilityCache(context.getApplicationContext().getFilesDir());
+		return instance;
+	}
+
+	CapabilityCache(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * @return the capabilities of the camera from memory or disk, or null if
+	 *         they were never captured on this build.
+	 */
+	public synchronized CameraCapabilities load(int cameraId) {
+		CameraCapabilities caps = memory.get(cameraId);
+		if (caps != null)
+			return caps;
+
+		File file = getFile(cameraId);
+		if (!file.exists())
+			return null;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != MAGIC || in.readInt() != CameraCapabilities.FORMAT_VERSION
+					|| !Build.FINGERPRINT.equals(in.readUTF()))
+				return null;
+			caps = CameraCapabilities.readFrom(in);
+			memory.put(cameraId, caps);
+			return caps;
+		} catch (IOException e) {
+			Logger.e(TAG, "Cannot read " + file, e);
+			return null;
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Returns the cached capabilities or, on a miss, queries the open camera
+	 * once and persists the result. Must be called on the camera thread.
+	 */
+	public synchronized CameraCapabilities obtain(int cameraId, Camera camera) {
+		CameraCapabilities caps = load(cameraId);
+		if (caps == null) {
+			caps = query(cameraId, camera);
+			memory.put(cameraId, caps);
+			save(caps);
+		}
+		return caps;
+	}
+
+	private static CameraCapabilities query(int cameraId, Camera camera) {
+		Camera.CameraInfo info = new Camera.CameraInfo();
+		Camera.getCameraInfo(cameraId, info);
+		Camera.Parameters parameters = camera.getParameters();
+
+		List<int[]> ranges = parameters.getSupportedPreviewFpsRange();
+		int[] fpsRanges = new int[ranges == null ? 0 : ranges.size() * 2];
+		for (int i = 0; i < fpsRanges.length / 2; i++) {
+			int[] range = ranges.get(i);
+			fpsRanges[2 * i] = range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+			fpsRanges[2 * i + 1] = range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+		}
+
+		int count = 0;
+		int[] profiles = new int[QUALITIES.length * CameraCapabilities.PROFILE_FIELDS];
+		for (int quality : QUALITIES) {
+			if (!CamcorderProfile.hasProfile(cameraId, quality))
+				continue;
+			CamcorderProfile profile = CamcorderProfile.get(cameraId, quality);
+			int base = count * CameraCapabilities.PROFILE_FIELDS;
+			profiles[base + CameraCapabilities.PROFILE_QUALITY] = quality;
+			profiles[base + CameraCapabilities.PROFILE_WIDTH] = profile.videoFrameWidth;
+			profiles[base + CameraCapabilities.PROFILE_HEIGHT] = profile.videoFrameHeight;
+			profiles[base + CameraCapabilities.PROFILE_FRAME_RATE] = profile.videoFrameRate;
+			profiles[base + CameraCapabilities.PROFILE_BIT_RATE] = profile.videoBitRate;
+			count++;
+		}
+		int[] trimmed = new int[count * CameraCapabilities.PROFILE_FIELDS];
+		System.arraycopy(profiles, 0, trimmed, 0, trimmed.length);
+
+		return new CameraCapabilities(cameraId, info.facing, info.orientation,
+				toPairs(parameters.getSupportedPreviewSizes()), toPairs(parameters.getSupportedVideoSizes()),
+				fpsRanges, parameters.getMinExposureCompensation(), parameters.getMaxExposureCompensation(),
+				parameters.getExposureCompensationStep(), trimmed);
+	}
+
+	private static int[] toPairs(List<Camera.Size> sizes) {
+		if (sizes == null)
+			return new int[0];
+		int[] pairs = new int[sizes.size() * 2];
+		for (int i = 0; i < sizes.size(); i++) {
+			pairs[2 * i] = sizes.get(i).width;
+			pairs[2 * i + 1] = sizes.get(i).height;
+		}
+		return pairs;
+	}
+
+	private void save(CameraCapabilities caps) {
+		File file = getFile(caps.cameraId);
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(MAGIC);
+			out.writeInt(CameraCapabilities.FORMAT_VERSION);
+			out.writeUTF(Build.FINGERPRINT);
+			caps.writeTo(out);
+			out.close();
+			out = null;
+			if (!tmp.renameTo(file))
+				Logger.e(TAG, "Cannot rename " + tmp);
+		} catch (IOException e) {
+			Logger.e(TAG, "Cannot write " + file, e);
+		} finally {
+			closeQuietly(out);
+		}
+	}
+
+	private File getFile(int cameraId) {
+		return new File(dir, "camera_caps_" + cameraId + ".bin");
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable == null)
+			return;
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+}
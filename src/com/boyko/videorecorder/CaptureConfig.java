@@ -0,0 +1,42 @@
+package com.boyko.videorecorder;
+
+/**
+ * Preview size, video size, preview FPS range and camcorder profile chosen
+ * together by {@link CaptureConfigSolver}. Applying it once when the preview
+ * starts is enough: recording with it needs no further parameter change.
+ */
+public class CaptureConfig {
+
+	public final int previewWidth;
+	public final int previewHeight;
+	public final int videoWidth;
+	public final int videoHeight;
+	/** Preview FPS range in frames per 1000 seconds, 0 to keep the default */
+	public final int minFps;
+	public final int maxFps;
+	/** Camcorder profile quality the recording is based on */
+	public final int profileQuality;
+	public final int frameRate;
+	/** Video bit rate scaled to the video size, 0 to keep the profile's */
+	public final int bitRate;
+
+	public CaptureConfig(int previewWidth, int previewHeight, int videoWidth, int videoHeight, int minFps,
+			int maxFps, int profileQuality, int frameRate, int bitRate) {
+		this.previewWidth = previewWidth;
+		this.previewHeight = previewHeight;
+		this.videoWidth = videoWidth;
+		this.videoHeight = videoHeight;
+		this.minFps = minFps;
+		this.maxFps = maxFps;
+		this.profileQuality = profileQuality;
+		this.frameRate = frameRate;
+		this.bitRate = bitRate;
+	}
+
+	@Override
+	public String toString() {
+		return "preview " + previewWidth + "x" + previewHeight + ", video " + videoWidth + "x" + videoHeight
+				+ ", fps " + minFps + "-" + maxFps + ", profile " + profileQuality + " @" + frameRate + "fps "
+				+ bitRate + "bps";
+	}
+}
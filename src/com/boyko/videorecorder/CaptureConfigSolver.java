@@ -0,0 +1,229 @@
+package com.boyko.videorecorder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Chooses the whole {@link CaptureConfig} for a camera and a view in one go:
+ * the preview size is the one closest to the profile's video size among sizes
+ * the camera can also record at, the FPS range is picked around the profile's
+ * frame rate, and the profile's bit rate is scaled to the chosen size. The
+ * view size only breaks ties, so a small view still records at full size. Preview and recording then share one
+ * configuration, so starting a recording never restarts the preview.
+ * <p>
+ * Results are memoized per capabilities, view size and quality. This class has
+ * no Android dependencies.
+ */
+public class CaptureConfigSolver {
+
+	private static final double ASPECT_TOLERANCE = 0.1;
+	private static final int DEFAULT_FRAME_RATE = 30;
+	private static final int MAX_CACHED = 16;
+
+	private static final Map<Key, CaptureConfig> cache = new LinkedHashMap<Key, CaptureConfig>(MAX_CACHED, 0.75f,
+			true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, CaptureConfig> eldest) {
+			return size() > MAX_CACHED;
+		}
+	};
+
+	private CaptureConfigSolver() {
+	}
+
+	/**
+	 * @param caps
+	 *            What the camera supports.
+	 * @param width
+	 *            Width of the view showing the preview.
+	 * @param height
+	 *            Height of the view showing the preview. The view size is
+	 *            only the target when there is no camcorder profile.
+	 * @param quality
+	 *            Preferred camcorder profile quality; the best available
+	 *            profile is used if the camera lacks it.
+	 * @return the configuration, or null if the camera reports no preview
+	 *         sizes.
+	 */
+	public static CaptureConfig solve(CameraCapabilities caps, int width, int height, int quality) {
+		Key key = new Key(caps, width, height, quality);
+		synchronized (cache) {
+			CaptureConfig config = cache.get(key);
+			if (config != null)
+				return config;
+		}
+		CaptureConfig config = compute(caps, width, height, quality);
+		if (config != null) {
+			synchronized (cache) {
+				cache.put(key, config);
+			}
+		}
+		return config;
+	}
+
+	static CaptureConfig compute(CameraCapabilities caps, int width, int height, int quality) {
+		int profile = caps.findProfile(quality);
+		if (profile == -1 && caps.getProfileCount() > 0)
+			profile = 0;
+		int profileQuality = quality;
+		int frameRate = DEFAULT_FRAME_RATE;
+		int bitRate = 0;
+		// Without a profile the view size is all there is to aim for
+		int targetWidth = width;
+		int targetHeight = height;
+		if (profile != -1) {
+			profileQuality = caps.getProfileField(profile, CameraCapabilities.PROFILE_QUALITY);
+			frameRate = caps.getProfileField(profile, CameraCapabilities.PROFILE_FRAME_RATE);
+			bitRate = caps.getProfileField(profile, CameraCapabilities.PROFILE_BIT_RATE);
+			targetWidth = caps.getProfileField(profile, CameraCapabilities.PROFILE_WIDTH);
+			targetHeight = caps.getProfileField(profile, CameraCapabilities.PROFILE_HEIGHT);
+		}
+
+		int[] sizes = caps.previewSizes;
+		// Without a separate video size list the camera records at the
+		// preview size
+		boolean separateVideo = caps.videoSizes.length > 0;
+
+		int preview = -1;
+		if (separateVideo)
+			preview = pickSize(sizes, targetWidth, targetHeight, height, caps.videoSizes, true);
+		if (preview == -1)
+			preview = pickSize(sizes, targetWidth, targetHeight, height, null, true);
+		if (preview == -1)
+			preview = pickSize(sizes, targetWidth, targetHeight, height, null, false);
+		if (preview == -1)
+			return null;
+		int previewWidth = sizes[2 * preview];
+		int previewHeight = sizes[2 * preview + 1];
+
+		int videoWidth = previewWidth;
+		int videoHeight = previewHeight;
+		if (separateVideo && indexOf(caps.videoSizes, previewWidth, previewHeight) == -1) {
+			int video = pickSize(caps.videoSizes, previewWidth, previewHeight, height, null, true);
+			if (video == -1)
+				video = pickSize(caps.videoSizes, previewWidth, previewHeight, height, null, false);
+			videoWidth = caps.videoSizes[2 * video];
+			videoHeight = caps.videoSizes[2 * video + 1];
+		}
+
+		long profilePixels = (long) targetWidth * targetHeight;
+		long pixels = (long) videoWidth * videoHeight;
+		if (profile != -1 && profilePixels > 0 && pixels < profilePixels)
+			bitRate = (int) (bitRate * pixels / profilePixels);
+
+		int range = pickFpsRange(caps.fpsRanges, frameRate * 1000);
+		int minFps = range == -1 ? 0 : caps.fpsRanges[2 * range];
+		int maxFps = range == -1 ? 0 : caps.fpsRanges[2 * range + 1];
+
+		return new CaptureConfig(previewWidth, previewHeight, videoWidth, videoHeight, minFps, maxFps,
+				profileQuality, frameRate, bitRate);
+	}
+
+	/**
+	 * @param viewHeight
+	 *            Among sizes as close to the target, the one closest to this
+	 *            height wins.
+	 * @return index of the pair in sizes whose height is closest to the
+	 *         target, optionally limited to the target's aspect ratio and to
+	 *         sizes also listed in allowed; or -1.
+	 */
+	private static int pickSize(int[] sizes, int width, int height, int viewHeight, int[] allowed,
+			boolean matchAspect) {
+		double targetRatio = (double) width / height;
+		int optimal = -1;
+		int minDiff = Integer.MAX_VALUE;
+		int minViewDiff = Integer.MAX_VALUE;
+		for (int i = 0; i < sizes.length / 2; i++) {
+			int w = sizes[2 * i];
+			int h = sizes[2 * i + 1];
+			if (matchAspect && Math.abs((double) w / h - targetRatio) > ASPECT_TOLERANCE)
+				continue;
+			if (allowed != null && indexOf(allowed, w, h) == -1)
+				continue;
+			int diff = Math.abs(h - height);
+			int viewDiff = Math.abs(h - viewHeight);
+			if (diff < minDiff || (diff == minDiff && viewDiff < minViewDiff)) {
+				optimal = i;
+				minDiff = diff;
+				minViewDiff = viewDiff;
+			}
+		}
+		return optimal;
+	}
+
+	/**
+	 * @return index of the narrowest range containing the frame rate or, if
+	 *         none does, of the closest one; or -1 if there are no ranges.
+	 */
+	private static int pickFpsRange(int[] ranges, int fps) {
+		int selected = -1, selectedDiff = -1;
+		for (int i = 0; i < ranges.length / 2; i++) {
+			int min = ranges[2 * i];
+			int max = ranges[2 * i + 1];
+			if (min <= fps && max >= fps) {
+				int diff = max - min;
+				if (selectedDiff == -1 || diff < selectedDiff) {
+					selected = i;
+					selectedDiff = diff;
+				}
+			}
+		}
+		if (selected != -1)
+			return selected;
+
+		int selectedDist = -1;
+		for (int i = 0; i < ranges.length / 2; i++) {
+			int min = ranges[2 * i];
+			int max = ranges[2 * i + 1];
+			int diff = max - min;
+			int dist = max < fps ? fps - max : min - fps;
+			if (selectedDist == -1 || dist < selectedDist || (dist == selectedDist && diff < selectedDiff)) {
+				selected = i;
+				selectedDist = dist;
+				selectedDiff = diff;
+			}
+		}
+		return selected;
+	}
+
+	private static int indexOf(int[] sizes, int width, int height) {
+		for (int i = 0; i < sizes.length / 2; i++) {
+			if (sizes[2 * i] == width && sizes[2 * i + 1] == height)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Capabilities are compared by identity; {@link CapabilityCache} hands out
+	 * one instance per camera.
+	 */
+	private static class Key {
+		final CameraCapabilities caps;
+		final int width;
+		final int height;
+		final int quality;
+
+		Key(CameraCapabilities caps, int width, int height, int quality) {
+			this.caps = caps;
+			this.width = width;
+			this.height = height;
+			this.quality = quality;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return caps == other.caps && width == other.width && height == other.height && quality == other.quality;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((System.identityHashCode(caps) * 31 + width) * 31 + height) * 31 + quality;
+		}
+	}
+}
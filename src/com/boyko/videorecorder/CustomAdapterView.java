@@ -16,21 +16,38 @@
 
 package com.boyko.videorecorder;
 
+import java.util.ArrayList;
+
 import android.content.Context;
+import android.content.res.TypedArray;
 import android.database.DataSetObserver;
-import android.graphics.Rect;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.MotionEvent;
+import android.view.VelocityTracker;
 import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.widget.Adapter;
 import android.widget.BaseAdapter;
 import android.widget.ListAdapter;
+import android.widget.OverScroller;
 
 public class CustomAdapterView extends ViewGroup {
 
 	private static final int BIG_MOVE_DISTANCE = 125;
+	private static final int DEFAULT_NUM_COLUMNS = 3;
+	/** Rows that fit the view's height */
+	private static final int VISIBLE_ROWS = 3;
+
+	/** Grid attributes read from the layout, sorted by id */
+	private static final int[] GRID_ATTRS = { android.R.attr.horizontalSpacing, android.R.attr.verticalSpacing,
+			android.R.attr.numColumns };
+	private static final int GRID_ATTR_HORIZONTAL_SPACING = 0;
+	private static final int GRID_ATTR_VERTICAL_SPACING = 1;
+	private static final int GRID_ATTR_NUM_COLUMNS = 2;
+	/** Rows kept as child views above and below the visible ones */
+	private static final int OFFSCREEN_ROWS = 1;
 	/**
 	 * Indicates that we are not in the middle of a touch gesture
 	 */
@@ -54,6 +71,16 @@ public class CustomAdapterView extends ViewGroup {
 	 */
 	static final int TOUCH_MODE_DONE_WAITING = 2;
 
+	/**
+	 * Indicates the touch gesture is a scroll
+	 */
+	static final int TOUCH_MODE_SCROLL = 3;
+
+	/**
+	 * Indicates the view is being flung
+	 */
+	static final int TOUCH_MODE_FLING = 4;
+
 	/**
 	 * Represents an invalid position. All valid positions are in the range 0 to
 	 * 1 less than the number of items in the current adapter.
@@ -67,22 +94,61 @@ public class CustomAdapterView extends ViewGroup {
 		boolean onCancelTouch();
 	}
 
+	/**
+	 * Lets a listener start work for a cell as soon as it is touched, before
+	 * the gesture is known to be a long press.
+	 */
+	public interface OnSpeculativeTouchListener {
+		/**
+		 * Called on touch down.
+		 * 
+		 * @param downTime
+		 *            Time of the down event, in the
+		 *            {@link android.os.SystemClock#uptimeMillis()} time base.
+		 * @return true if speculative work was started for this cell.
+		 */
+		boolean onSpeculativeStart(CustomAdapterView parent, View view, int position, long id, long downTime);
+
+		/**
+		 * Called when the gesture turned out to be a tap, a big move or was
+		 * cancelled, so the speculative work should be thrown away. It is not
+		 * called when the gesture becomes a handled long press.
+		 */
+		void onSpeculativeDiscard();
+	}
+
+	/**
+	 * Told which positions have children, the visible rows plus
+	 * {@link #OFFSCREEN_ROWS} on each side, whenever that window moves.
+	 */
+	public interface OnWindowChangeListener {
+		void onWindowChanged(CustomAdapterView parent, int firstPosition, int count);
+	}
+
+	/**
+	 * Told which positions are visible, at least partly, whenever that range
+	 * moves or the data set changes. Unlike the window, it also moves while
+	 * the first or last row scrolls out of view.
+	 */
+	public interface OnVisibleRangeChangeListener {
+		void onVisibleRangeChanged(CustomAdapterView parent, int firstVisiblePosition, int lastVisiblePosition);
+	}
+
 	private BaseAdapter adapter;
 	private OnItemTouchListener itemClickListener;
+	private OnSpeculativeTouchListener speculativeListener;
+	private OnWindowChangeListener windowChangeListener;
+	private OnVisibleRangeChangeListener visibleRangeChangeListener;
 
 	/**
 	 * One of TOUCH_MODE_REST, TOUCH_MODE_DOWN, TOUCH_MODE_TAP,
-	 * TOUCH_MODE_SCROLL, or TOUCH_MODE_DONE_WAITING
+	 * TOUCH_MODE_SCROLL, TOUCH_MODE_FLING or TOUCH_MODE_DONE_WAITING
 	 */
 	private int mTouchMode = TOUCH_MODE_REST;
 	/**
 	 * The X value associated with the the down motion event
 	 */
 	private int mMotionPosition;
-	/**
-	 * Rectangle used for hit testing children
-	 */
-	private Rect mTouchFrame;
 	/**
 	 * The last CheckForLongPress runnable we posted, if any
 	 */
@@ -108,6 +174,49 @@ public class CustomAdapterView extends ViewGroup {
 	 * Last touched position
 	 */
 	private int mLastY;
+	/**
+	 * Y of the last motion event handled while scrolling
+	 */
+	private int mLastMotionY;
+
+	/**
+	 * The adapter position of the first child
+	 */
+	int mFirstPosition;
+	/**
+	 * Scroll offset of the first row, in pixels
+	 */
+	private int mScrollY;
+	/**
+	 * Visible range last told to the visible range listener
+	 */
+	private int mFirstVisiblePosition = INVALID_POSITION;
+	private int mLastVisiblePosition = INVALID_POSITION;
+	/**
+	 * Cell sizes and positions, from the numColumns, horizontalSpacing and
+	 * verticalSpacing attributes
+	 */
+	private GridGeometry mGeometry;
+	/**
+	 * Measure specs of a cell, recomputed only when the cell size changes
+	 */
+	private int mChildWidthMeasureSpec;
+	private int mChildHeightMeasureSpec;
+
+	private OverScroller mScroller;
+	/**
+	 * Tracks the velocity of every gesture, obtained once while attached
+	 */
+	private VelocityTracker mVelocityTracker;
+	private int mTouchSlop;
+	/**
+	 * Thresholds compared with squared distances so moves need no square
+	 * root; computed on attach
+	 */
+	private int mTouchSlopSquare;
+	private int mBigMoveLimit;
+	private int mMinimumVelocity;
+	private int mMaximumVelocity;
 
 	private boolean isAttach;
 
@@ -115,16 +224,54 @@ public class CustomAdapterView extends ViewGroup {
 
 	private boolean isDirty;
 
+	/**
+	 * Views detached by a rebuild, handed back to the adapter as convertView
+	 */
+	final RecycleBin mRecycler = new RecycleBin();
+
+	/**
+	 * Whether the view last returned by obtainView was a detached child
+	 */
+	private boolean mIsRecycled;
+
+	/**
+	 * Whether speculative work was started on the current touch down and has
+	 * not yet been kept or discarded
+	 */
+	private boolean mIsSpeculating;
+
 	public CustomAdapterView(Context context, AttributeSet attrs, int defStyle) {
 		super(context, attrs, defStyle);
+		init(attrs, defStyle);
 	}
 
 	public CustomAdapterView(Context context, AttributeSet attrs) {
 		super(context, attrs);
+		init(attrs, 0);
 	}
 
 	public CustomAdapterView(Context context) {
 		super(context);
+		init(null, 0);
+	}
+
+	private void init(AttributeSet attrs, int defStyle) {
+		final TypedArray a = getContext().obtainStyledAttributes(attrs, GRID_ATTRS, defStyle, 0);
+		final int horizontalSpacing = a.getDimensionPixelOffset(GRID_ATTR_HORIZONTAL_SPACING, 0);
+		final int verticalSpacing = a.getDimensionPixelOffset(GRID_ATTR_VERTICAL_SPACING, 0);
+		int numColumns = a.getInt(GRID_ATTR_NUM_COLUMNS, DEFAULT_NUM_COLUMNS);
+		a.recycle();
+		if (numColumns < 1) {
+			// auto_fit is not supported
+			numColumns = DEFAULT_NUM_COLUMNS;
+		}
+		mGeometry = new GridGeometry(numColumns, VISIBLE_ROWS, horizontalSpacing, verticalSpacing);
+
+		final ViewConfiguration configuration = ViewConfiguration.get(getContext());
+		mTouchSlop = configuration.getScaledTouchSlop();
+		mMinimumVelocity = configuration.getScaledMinimumFlingVelocity();
+		mMaximumVelocity = configuration.getScaledMaximumFlingVelocity();
+		mScroller = new OverScroller(getContext());
 	}
 
 	public void setAdapter(BaseAdapter adapter) {
@@ -136,12 +283,33 @@ public class CustomAdapterView extends ViewGroup {
 		adapter.registerDataSetObserver(dataSetObserver);
 
 		this.adapter = adapter;
+		removeAllViewsInLayout();
+		mFirstPosition = 0;
+		mScrollY = 0;
+		mFirstVisiblePosition = INVALID_POSITION;
+		mLastVisiblePosition = INVALID_POSITION;
+		mRecycler.clear();
+		mRecycler.setViewTypeCount(adapter.getViewTypeCount());
 	}
 
 	public BaseAdapter getAdapter() {
 		return adapter;
 	}
 
+	/**
+	 * @return the width of a cell, 0 before the first layout.
+	 */
+	public int getColumnWidth() {
+		return mGeometry.getColumnWidth();
+	}
+
+	/**
+	 * @return the height of a cell, 0 before the first layout.
+	 */
+	public int getRowHeight() {
+		return mGeometry.getRowHeight();
+	}
+
 	public OnItemTouchListener getItemClickListener() {
 		return itemClickListener;
 	}
@@ -150,30 +318,246 @@ public class CustomAdapterView extends ViewGroup {
 		this.itemClickListener = itemClickListener;
 	}
 
+	public OnSpeculativeTouchListener getSpeculativeListener() {
+		return speculativeListener;
+	}
+
+	public void setSpeculativeListener(OnSpeculativeTouchListener speculativeListener) {
+		this.speculativeListener = speculativeListener;
+	}
+
+	public void setWindowChangeListener(OnWindowChangeListener windowChangeListener) {
+		this.windowChangeListener = windowChangeListener;
+	}
+
+	public void setVisibleRangeChangeListener(OnVisibleRangeChangeListener visibleRangeChangeListener) {
+		this.visibleRangeChangeListener = visibleRangeChangeListener;
+	}
+
+	/**
+	 * @return the adapter position of the first child, which may be in a row
+	 *         above the visible ones.
+	 */
+	public int getFirstPosition() {
+		return mFirstPosition;
+	}
+
+	/**
+	 * @return the first position of the topmost visible row.
+	 */
+	public int getFirstVisiblePosition() {
+		return mGeometry.getRowAt(mScrollY) * mGeometry.getNumColumns();
+	}
+
+	/**
+	 * @return the last position of the bottommost visible row, or -1 before
+	 *         the first layout.
+	 */
+	public int getLastVisiblePosition() {
+		if (adapter == null || mGeometry.getRowHeight() == 0)
+			return INVALID_POSITION;
+		final int lastRow = mGeometry.getRowAt(mScrollY + getHeight() - 1);
+		return Math.min(adapter.getCount(), (lastRow + 1) * mGeometry.getNumColumns()) - 1;
+	}
+
 	@Override
 	protected void onLayout(boolean changed, int l, int t, int r, int b) {
 		if (adapter == null)
 			return;
-		if (isDirty == true && getChildCount() > 0) {
-			removeAllViews();
-		} else if (getChildCount() < adapter.getCount()) {
-			int position = 0;
-			int bottomEdge = 0;
-			while (bottomEdge < getHeight() && position < adapter.getCount()) {
-				int rightEdge = 0;
-				int measuredHeight = 0;
-				while (rightEdge < getWidth() && position < adapter.getCount()) {
-					View newChild = adapter.getView(position, null, this);
-					addAndMeasureChild(newChild, position);
-					rightEdge += newChild.getMeasuredWidth();
-					measuredHeight = newChild.getMeasuredHeight();
-					position++;
-				}
-				bottomEdge += measuredHeight;
-			}
+		final boolean sizeChanged = mGeometry.setSize(getWidth(), getHeight());
+		if (sizeChanged) {
+			mChildWidthMeasureSpec = MeasureSpec.makeMeasureSpec(mGeometry.getColumnWidth(), MeasureSpec.EXACTLY);
+			mChildHeightMeasureSpec = MeasureSpec.makeMeasureSpec(mGeometry.getRowHeight(), MeasureSpec.EXACTLY);
+		}
+		final boolean rebuild = isDirty || changed || sizeChanged;
+		if (rebuild && getChildCount() > 0) {
+			// Children are measured for the old size or bound to old data
+			detachAllChildren();
 		}
-		layoutChildren();
+		mScrollY = Math.min(mScrollY, getMaxScrollY());
+		fillWindow();
+		// Otherwise only children that asked for it are laid out again
+		layoutChildren(rebuild);
 		isDirty = false;
+		// After a data change other items may be in the same range
+		dispatchVisibleRangeChanged(rebuild);
+	}
+
+	/**
+	 * Makes the children cover exactly the visible rows plus
+	 * {@link #OFFSCREEN_ROWS} on each side, recycling the ones that left that
+	 * window and adding the ones that entered it. The work only depends on the
+	 * number of rows that changed, not on the size of the adapter.
+	 */
+	private void fillWindow() {
+		final int count = adapter.getCount();
+		final GridGeometry geometry = mGeometry;
+		final int oldFirst = mFirstPosition;
+		final int oldCount = getChildCount();
+		if (count == 0 || geometry.getRowHeight() == 0) {
+			while (getChildCount() > 0)
+				scrapChild(getChildCount() - 1);
+			mRecycler.scrapActiveViews();
+			mRecycler.removeSkippedScrap();
+			dispatchWindowChanged(oldFirst, oldCount);
+			return;
+		}
+		final int numColumns = geometry.getNumColumns();
+		final int lastRow = geometry.getRow(count - 1);
+		final int firstVisibleRow = Math.max(0, geometry.getRowAt(mScrollY) - OFFSCREEN_ROWS);
+		final int lastVisibleRow = Math.min(lastRow, geometry.getRowAt(mScrollY + getHeight() - 1) + OFFSCREEN_ROWS);
+		final int first = firstVisibleRow * numColumns;
+		final int last = Math.min(count - 1, (lastVisibleRow + 1) * numColumns - 1);
+		if (adapter.hasStableIds())
+			mRecycler.scrapActiveViewsOutside(adapter, first, last);
+
+		// Recycle the children outside the window
+		if (getChildCount() > 0
+				&& (mFirstPosition + getChildCount() - 1 < first || mFirstPosition > last)) {
+			while (getChildCount() > 0)
+				scrapChild(getChildCount() - 1);
+		}
+		while (getChildCount() > 0 && mFirstPosition + getChildCount() - 1 > last)
+			scrapChild(getChildCount() - 1);
+		while (getChildCount() > 0 && mFirstPosition < first) {
+			scrapChild(0);
+			mFirstPosition++;
+		}
+		if (getChildCount() == 0)
+			mFirstPosition = first;
+
+		// Add the ones that entered it
+		while (mFirstPosition > first) {
+			mFirstPosition--;
+			final View child = obtainView(mFirstPosition);
+			addAndMeasureChild(child, mFirstPosition, 0);
+			layoutChild(child, mFirstPosition);
+		}
+		while (mFirstPosition + getChildCount() <= last) {
+			final int position = mFirstPosition + getChildCount();
+			final View child = obtainView(position);
+			addAndMeasureChild(child, position, getChildCount());
+			layoutChild(child, position);
+		}
+		mRecycler.scrapActiveViews();
+		mRecycler.removeSkippedScrap();
+		dispatchWindowChanged(oldFirst, oldCount);
+	}
+
+	private void dispatchWindowChanged(int oldFirst, int oldCount) {
+		if (windowChangeListener != null && (mFirstPosition != oldFirst || getChildCount() != oldCount))
+			windowChangeListener.onWindowChanged(this, mFirstPosition, getChildCount());
+	}
+
+	/**
+	 * @param force
+	 *            true to tell the listener even if the range did not move.
+	 */
+	private void dispatchVisibleRangeChanged(boolean force) {
+		final int first = getFirstVisiblePosition();
+		final int last = getLastVisiblePosition();
+		if (!force && first == mFirstVisiblePosition && last == mLastVisiblePosition)
+			return;
+		mFirstVisiblePosition = first;
+		mLastVisiblePosition = last;
+		if (visibleRangeChangeListener != null)
+			visibleRangeChangeListener.onVisibleRangeChanged(this, first, last);
+	}
+
+	/**
+	 * Detaches a child that left the window and hands it to the recycle bin.
+	 */
+	private void scrapChild(int index) {
+		final View child = getChildAt(index);
+		detachViewFromParent(index);
+		mRecycler.addScrapView(child, ((LayoutParams) child.getLayoutParams()).viewType);
+	}
+
+	private int getMaxScrollY() {
+		if (adapter == null)
+			return 0;
+		return mGeometry.getMaxScrollY(adapter.getCount());
+	}
+
+	/**
+	 * Scrolls the content by the given number of pixels, clamped to its
+	 * bounds.
+	 * 
+	 * @return false if the content could not move.
+	 */
+	boolean scrollContentBy(int dy) {
+		final int scrollY = Math.max(0, Math.min(getMaxScrollY(), mScrollY + dy));
+		final int delta = scrollY - mScrollY;
+		if (delta == 0 || adapter == null)
+			return false;
+		mScrollY = scrollY;
+		for (int i = 0; i < getChildCount(); i++)
+			getChildAt(i).offsetTopAndBottom(-delta);
+		fillWindow();
+		dispatchVisibleRangeChanged(false);
+		invalidate();
+		return true;
+	}
+
+	private boolean fling(int velocityY) {
+		if (getMaxScrollY() == 0)
+			return false;
+		mScroller.fling(0, mScrollY, 0, velocityY, 0, 0, 0, getMaxScrollY());
+		postInvalidate();
+		return true;
+	}
+
+	@Override
+	public void computeScroll() {
+		if (mScroller.computeScrollOffset()) {
+			if (!scrollContentBy(mScroller.getCurrY() - mScrollY) && mScroller.getCurrY() != mScrollY)
+				mScroller.abortAnimation();
+			if (!mScroller.isFinished()) {
+				postInvalidate();
+				return;
+			}
+		}
+		if (mTouchMode == TOUCH_MODE_FLING)
+			mTouchMode = TOUCH_MODE_REST;
+	}
+
+	/**
+	 * Detaches all children without detaching them from the window and hands
+	 * them to the recycle bin, so the rebuild can reuse them as convertViews
+	 * and a view of an ignored type (the camera tile) that is handed back
+	 * keeps its surface. With stable ids the children are kept by item id,
+	 * so an item that is still there gets its own view back.
+	 */
+	private void detachAllChildren() {
+		final int count = getChildCount();
+		final boolean stableIds = adapter.hasStableIds();
+		for (int i = 0; i < count; i++) {
+			final View child = getChildAt(i);
+			if (stableIds)
+				mRecycler.addActiveView(child);
+			else
+				mRecycler.addScrapView(child, ((LayoutParams) child.getLayoutParams()).viewType);
+		}
+		detachAllViewsFromParent();
+	}
+
+	/**
+	 * Gets a view for the position from the adapter, offering it the view the
+	 * item had before the data set change, or else a scrap view of the same
+	 * type, to convert.
+	 */
+	private View obtainView(int position) {
+		final int viewType = adapter.getItemViewType(position);
+		View convertView = null;
+		if (adapter.hasStableIds())
+			convertView = mRecycler.getActiveView(adapter.getItemId(position));
+		if (convertView == null)
+			convertView = mRecycler.getScrapView(viewType);
+		final View child = adapter.getView(position, convertView, this);
+		mIsRecycled = convertView != null && child == convertView;
+		if (convertView != null && !mIsRecycled)
+			mRecycler.addScrapView(convertView, ((LayoutParams) convertView.getLayoutParams()).viewType);
+		return child;
 	}
 
 	/**
@@ -181,43 +565,73 @@ public class CustomAdapterView extends ViewGroup {
 	 * 
 	 * @param child
 	 *            The view to add
+	 * @param position
+	 *            Its adapter position
+	 * @param index
+	 *            Its index among the children
 	 */
-	private void addAndMeasureChild(View child, int position) {
-		LayoutParams params = child.getLayoutParams();
-		if (params == null) {
-			params = new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
+	private void addAndMeasureChild(View child, int position, int index) {
+		ViewGroup.LayoutParams p = child.getLayoutParams();
+		LayoutParams params;
+		if (p == null) {
+			params = generateDefaultLayoutParams();
+		} else if (!checkLayoutParams(p)) {
+			params = generateLayoutParams(p);
+		} else {
+			params = (LayoutParams) p;
 		}
-		addViewInLayout(child, position, params, true);
-
-		int itemWidth = getWidth() / 3;
-		int itemHeight = getHeight() / 3;
-		child.measure(MeasureSpec.EXACTLY | itemWidth, MeasureSpec.EXACTLY | itemHeight);
+		params.viewType = adapter.getItemViewType(position);
+		params.itemId = adapter.getItemId(position);
+		if (mIsRecycled || mRecycler.reclaim(child))
+			attachViewToParent(child, index, params);
+		else
+			addViewInLayout(child, index, params, true);
+
+		// A recycled cell keeps its measurement unless the cell size or its
+		// content changed
+		if (child.isLayoutRequested() || child.getMeasuredWidth() != mGeometry.getColumnWidth()
+				|| child.getMeasuredHeight() != mGeometry.getRowHeight())
+			child.measure(mChildWidthMeasureSpec, mChildHeightMeasureSpec);
 	}
 
 	/**
 	 * Positions the children at the "correct" positions
+	 * 
+	 * @param force
+	 *            false to only lay out the children that requested it
 	 */
-	private void layoutChildren() {
-		View child = getChildAt(0);
-		int numCol = getWidth() / child.getMeasuredWidth();
-
+	private void layoutChildren(boolean force) {
 		for (int index = 0; index < getChildCount(); index++) {
-			child = getChildAt(index);
-			int width = child.getMeasuredWidth();
-			int height = child.getMeasuredHeight();
-			int mod = index / numCol;
-			int left = (index - mod * numCol) * width;
-			int top = mod * height;
-
-			child.layout(left, top, left + width, top + height);
+			final View child = getChildAt(index);
+			if (force) {
+				layoutChild(child, mFirstPosition + index);
+			} else if (child.isLayoutRequested()) {
+				// The child changed in place, e.g. a rebind or a visibility
+				// change; layout alone would not reach its subtree
+				child.measure(mChildWidthMeasureSpec, mChildHeightMeasureSpec);
+				layoutChild(child, mFirstPosition + index);
+			}
 		}
-		
-		Log.d(VIEW_LOG_TAG, "layoutChildren");
+	}
+
+	private void layoutChild(View child, int position) {
+		int width = child.getMeasuredWidth();
+		int height = child.getMeasuredHeight();
+		int left = mGeometry.getCellLeft(position);
+		int top = mGeometry.getCellTop(position, mScrollY);
+
+		child.layout(left, top, left + width, top + height);
 	}
 
 	@Override
 	protected void onAttachedToWindow() {
 		super.onAttachedToWindow();
+		mTouchSlopSquare = mTouchSlop * mTouchSlop;
+		// The squared move distance in pixels has always been compared with
+		// the squared distance converted as if it were in dp
+		mBigMoveLimit = Convenience.dpToPx(getContext(), BIG_MOVE_DISTANCE * BIG_MOVE_DISTANCE);
+		if (mVelocityTracker == null)
+			mVelocityTracker = VelocityTracker.obtain();
 		isAttach = true;
 	}
 
@@ -225,6 +639,33 @@ public class CustomAdapterView extends ViewGroup {
 	protected void onDetachedFromWindow() {
 		super.onDetachedFromWindow();
 		isAttach = false;
+		mScroller.abortAnimation();
+		if (mVelocityTracker != null) {
+			mVelocityTracker.recycle();
+			mVelocityTracker = null;
+		}
+		mRecycler.clear();
+	}
+
+	@Override
+	protected void dispatchSetPressed(boolean pressed) {
+		// Don't dispatch setPressed to our children. Only the touched cell is
+		// pressed, so only its region is redrawn.
+	}
+
+	@Override
+	protected LayoutParams generateDefaultLayoutParams() {
+		return new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
+	}
+
+	@Override
+	protected LayoutParams generateLayoutParams(ViewGroup.LayoutParams p) {
+		return new LayoutParams(p);
+	}
+
+	@Override
+	protected boolean checkLayoutParams(ViewGroup.LayoutParams p) {
+		return p instanceof LayoutParams;
 	}
 
 	@Override
@@ -239,26 +680,26 @@ public class CustomAdapterView extends ViewGroup {
 			return false;
 
 		final int actionMasked = ev.getActionMasked();
+		if (actionMasked == MotionEvent.ACTION_DOWN)
+			mVelocityTracker.clear();
+		mVelocityTracker.addMovement(ev);
+
 		switch (actionMasked) {
 		case MotionEvent.ACTION_DOWN: {
-			Log.w(VIEW_LOG_TAG, "ACTION_DOWN");
 			onTouchDown(ev);
 			break;
 		}
 
 		case MotionEvent.ACTION_UP: {
-			Log.w(VIEW_LOG_TAG, "ACTION_UP");
 			onTouchUp(ev);
 			break;
 		}
 
 		case MotionEvent.ACTION_CANCEL: {
-			Log.w(VIEW_LOG_TAG, "ACTION_CANCEL");
 			onTouchCancel();
 			break;
 		}
 		case MotionEvent.ACTION_MOVE: {
-			Log.w(VIEW_LOG_TAG, "ACTION_MOVE");
 			onTouchMove(ev);
 			break;
 		}
@@ -270,6 +711,17 @@ public class CustomAdapterView extends ViewGroup {
 	private void onTouchDown(MotionEvent ev) {
 		final int x = (int) ev.getX();
 		final int y = (int) ev.getY();
+		mLastMotionY = y;
+
+		if (mTouchMode == TOUCH_MODE_FLING) {
+			// Catch the fling, the gesture continues as a scroll
+			mScroller.abortAnimation();
+			mTouchMode = TOUCH_MODE_SCROLL;
+			mLastX = x;
+			mLastY = y;
+			return;
+		}
+
 		int motionPosition = pointToPosition(x, y);
 
 		if ((motionPosition >= 0) && getAdapter().isEnabled(motionPosition)) {
@@ -286,6 +738,13 @@ public class CustomAdapterView extends ViewGroup {
 			postDelayed(mPendingCheckForTap, ViewConfiguration.getTapTimeout());
 
 			mMotionPosition = motionPosition;
+
+			if (speculativeListener != null) {
+				final View child = getChildAt(motionPosition - mFirstPosition);
+				mIsSpeculating = child != null
+						&& speculativeListener.onSpeculativeStart(this, child, motionPosition,
+								adapter.getItemId(motionPosition), ev.getDownTime());
+			}
 		}
 
 		mLastX = x;
@@ -295,15 +754,26 @@ public class CustomAdapterView extends ViewGroup {
 
 	private void onTouchUp(MotionEvent ev) {
 
+		discardSpeculation();
 		if (itemClickListener != null)
 			itemClickListener.onItemStopTouch();
 
 		switch (mTouchMode) {
+		case TOUCH_MODE_SCROLL: {
+			final VelocityTracker velocityTracker = mVelocityTracker;
+			velocityTracker.computeCurrentVelocity(1000, mMaximumVelocity);
+			final int velocityY = (int) velocityTracker.getYVelocity();
+			if (Math.abs(velocityY) > mMinimumVelocity && fling(-velocityY))
+				mTouchMode = TOUCH_MODE_FLING;
+			else
+				mTouchMode = TOUCH_MODE_REST;
+			break;
+		}
 		case TOUCH_MODE_DOWN:
 		case TOUCH_MODE_TAP:
 		case TOUCH_MODE_DONE_WAITING: {
 			final int motionPosition = mMotionPosition;
-			final View child = getChildAt(motionPosition);
+			final View child = getChildAt(motionPosition - mFirstPosition);
 			if (child != null) {
 				if (mTouchMode != TOUCH_MODE_DOWN) {
 					child.setPressed(false);
@@ -323,7 +793,6 @@ public class CustomAdapterView extends ViewGroup {
 
 					if (adapter.isEnabled(motionPosition)) {
 						mTouchMode = TOUCH_MODE_TAP;
-						layoutChildren();
 						child.setPressed(true);
 						setPressed(true);
 						if (mTouchModeReset != null) {
@@ -363,11 +832,12 @@ public class CustomAdapterView extends ViewGroup {
 	}
 
 	private void onTouchCancel() {
+		discardSpeculation();
 		switch (mTouchMode) {
 		default:
 			mTouchMode = TOUCH_MODE_REST;
 			setPressed(false);
-			final View motionView = this.getChildAt(mMotionPosition);
+			final View motionView = this.getChildAt(mMotionPosition - mFirstPosition);
 			if (motionView != null) {
 				motionView.setPressed(false);
 			}
@@ -376,32 +846,69 @@ public class CustomAdapterView extends ViewGroup {
 	}
 
 	private void onTouchMove(MotionEvent ev) {
+		final int y = (int) ev.getY();
+		switch (mTouchMode) {
+		case TOUCH_MODE_DOWN:
+		case TOUCH_MODE_TAP:
+		case TOUCH_MODE_DONE_WAITING:
+			final int dy = y - mLastY;
+			if (dy * dy > mTouchSlopSquare) {
+				// The touch is a scroll, not a tap or a long press
+				cancelItemTouch();
+				mTouchMode = TOUCH_MODE_SCROLL;
+				mLastMotionY = y;
+				final ViewParent parent = getParent();
+				if (parent != null)
+					parent.requestDisallowInterceptTouchEvent(true);
+				return;
+			}
+			break;
+		case TOUCH_MODE_SCROLL:
+			scrollContentBy(mLastMotionY - y);
+			mLastMotionY = y;
+			return;
+		}
+
 		if (isBigMove(ev)) {
+			cancelItemTouch();
 			mTouchMode = TOUCH_MODE_REST;
-			setPressed(false);
-			final View motionView = this.getChildAt(mMotionPosition);
-			if (motionView != null) {
-				motionView.setPressed(false);
-			}
-			removeCallbacks(mPendingCheckForLongPress);
-			if (itemClickListener != null)
-				itemClickListener.onCancelTouch();
 		}
 	}
 
-	private boolean isBigMove(MotionEvent event) {
-		Double a2 = Math.pow(mLastX - event.getRawX(), 2D);
-		Double b2 = Math.pow(mLastY - event.getRawY(), 2D);
-		Double limit = (double) Convenience.dpToPx(getContext(), (int) Math.pow(BIG_MOVE_DISTANCE, 2D));
-		
-		Log.d(VIEW_LOG_TAG, "isBigMove " + mLastX + ", " + mLastY + " | " + event.getRawX() + "," + event.getRawY()
-				+ " || " + (a2 + b2) + " ? "+ limit);
-		
-		if (a2 + b2 > limit) {
-			return true;
-		} else {
-			return false;
+	/**
+	 * Cancels the pressed state, the pending long press and any speculative
+	 * work of the touched item.
+	 */
+	private void cancelItemTouch() {
+		setPressed(false);
+		final View motionView = this.getChildAt(mMotionPosition - mFirstPosition);
+		if (motionView != null) {
+			motionView.setPressed(false);
 		}
+		removeCallbacks(mPendingCheckForTap);
+		removeCallbacks(mPendingCheckForLongPress);
+		discardSpeculation();
+		if (itemClickListener != null)
+			itemClickListener.onCancelTouch();
+	}
+
+	/**
+	 * Tells the speculative listener to throw away the work started on touch
+	 * down, if any is still pending.
+	 */
+	private void discardSpeculation() {
+		if (mIsSpeculating) {
+			mIsSpeculating = false;
+			if (speculativeListener != null)
+				speculativeListener.onSpeculativeDiscard();
+		}
+	}
+
+	private boolean isBigMove(MotionEvent event) {
+		// Same coordinate space as the down position
+		final float dx = event.getX() - mLastX;
+		final float dy = event.getY() - mLastY;
+		return dx * dx + dy * dy > mBigMoveLimit;
 	}
 
 	/**
@@ -411,28 +918,20 @@ public class CustomAdapterView extends ViewGroup {
 	 *            X in local coordinate
 	 * @param y
 	 *            Y in local coordinate
-	 * @return The position of the item which contains the specified point, or
-	 *         {@link #INVALID_POSITION} if the point does not intersect an
-	 *         item.
+	 * @return The adapter position of the item which contains the specified
+	 *         point, or {@link #INVALID_POSITION} if the point does not
+	 *         intersect an item.
 	 */
 	public int pointToPosition(int x, int y) {
-		Rect frame = mTouchFrame;
-		if (frame == null) {
-			mTouchFrame = new Rect();
-			frame = mTouchFrame;
-		}
-
-		final int count = getChildCount();
-		for (int i = count - 1; i >= 0; i--) {
-			final View child = getChildAt(i);
-			if (child.getVisibility() == View.VISIBLE) {
-				child.getHitRect(frame);
-				if (frame.contains(x, y)) {
-					return i;
-				}
-			}
-		}
-		return INVALID_POSITION;
+		if (adapter == null)
+			return INVALID_POSITION;
+		final int position = mGeometry.pointToPosition(x, y, mScrollY, adapter.getCount());
+		if (position == GridGeometry.INVALID_POSITION)
+			return INVALID_POSITION;
+		final View child = getChildAt(position - mFirstPosition);
+		if (child == null || child.getVisibility() != View.VISIBLE)
+			return INVALID_POSITION;
+		return position;
 	}
 
 	final class CheckForTap implements Runnable {
@@ -440,12 +939,11 @@ public class CustomAdapterView extends ViewGroup {
 		public void run() {
 			if (mTouchMode == TOUCH_MODE_DOWN) {
 				mTouchMode = TOUCH_MODE_TAP;
-				final View child = getChildAt(mMotionPosition);
+				final View child = getChildAt(mMotionPosition - mFirstPosition);
 				if (child != null) {// && !child.hasFocusable()) {
 
 					child.setPressed(true);
 					setPressed(true);
-					layoutChildren();
 
 					final int longPressTimeout = ViewConfiguration.getLongPressTimeout();
 
@@ -486,7 +984,7 @@ public class CustomAdapterView extends ViewGroup {
 			final int motionPosition = mClickMotionPosition;
 			if (_adapter != null && _adapter.getCount() > 0 && motionPosition != INVALID_POSITION
 					&& motionPosition < _adapter.getCount() && sameWindow()) {
-				final View view = getChildAt(motionPosition);
+				final View view = getChildAt(motionPosition - mFirstPosition);
 				// If there is no view, something bad happened (the view
 				// scrolled off the
 				// screen, etc.) and we should cancel the click
@@ -501,7 +999,7 @@ public class CustomAdapterView extends ViewGroup {
 		@Override
 		public void run() {
 			final int motionPosition = mMotionPosition;
-			final View child = getChildAt(motionPosition);
+			final View child = getChildAt(motionPosition - mFirstPosition);
 			if (child != null) {
 				final int longPressPosition = mMotionPosition;
 				final long longPressId = adapter.getItemId(mMotionPosition);
@@ -511,10 +1009,13 @@ public class CustomAdapterView extends ViewGroup {
 					handled = performLongPress(child, longPressPosition, longPressId);
 				}
 				if (handled) {
+					// The long press keeps whatever was started on touch down
+					mIsSpeculating = false;
 					mTouchMode = TOUCH_MODE_REST;
 					setPressed(false);
 					child.setPressed(false);
 				} else {
+					discardSpeculation();
 					mTouchMode = TOUCH_MODE_DONE_WAITING;
 				}
 			}
@@ -534,8 +1035,170 @@ public class CustomAdapterView extends ViewGroup {
 		}
 	}
 
+	/**
+	 * Layout parameters of the children, remembering the view type they were
+	 * created for.
+	 */
+	public static class LayoutParams extends ViewGroup.LayoutParams {
+		/**
+		 * The adapter's view type for the child, or
+		 * {@link Adapter#IGNORE_ITEM_VIEW_TYPE} if it must never be recycled
+		 */
+		int viewType;
+
+		/**
+		 * The adapter's id for the child's item when it was bound
+		 */
+		long itemId;
+
+		public LayoutParams(int width, int height) {
+			super(width, height);
+		}
+
+		public LayoutParams(ViewGroup.LayoutParams source) {
+			super(source);
+		}
+	}
+
+	/**
+	 * Keeps the children detached by a rebuild, one scrap heap per view type,
+	 * so the adapter can convert them instead of inflating new views. Scrap
+	 * views stay attached to the window until they are reused or cleared.
+	 * Views of {@link Adapter#IGNORE_ITEM_VIEW_TYPE} are never handed out as
+	 * convertViews; they are only re-attached if the adapter returns the same
+	 * instance in the same pass, and removed otherwise.
+	 * <p>
+	 * With stable ids, detached children are first kept as active views by
+	 * item id and go back to the same item; only those whose item is gone
+	 * become scrap.
+	 */
+	class RecycleBin {
+		private ArrayList<View>[] mScrapViews;
+		private final ArrayList<View> mSkippedScrap = new ArrayList<View>();
+		private final ArrayList<View> mActiveViews = new ArrayList<View>();
+
+		void addActiveView(View child) {
+			mActiveViews.add(child);
+		}
+
+		/**
+		 * @return the detached child that showed the item, or null.
+		 */
+		View getActiveView(long itemId) {
+			final ArrayList<View> active = mActiveViews;
+			for (int i = 0; i < active.size(); i++) {
+				final View child = active.get(i);
+				if (((LayoutParams) child.getLayoutParams()).itemId == itemId)
+					return active.remove(i);
+			}
+			return null;
+		}
+
+		/**
+		 * Moves the active views whose items are not at the given positions to
+		 * the scrap heaps, so they can be converted for the items that are.
+		 * Only the window is scanned, whatever the size of the adapter.
+		 */
+		void scrapActiveViewsOutside(Adapter adapter, int first, int last) {
+			final ArrayList<View> active = mActiveViews;
+			for (int i = active.size() - 1; i >= 0; i--) {
+				final View child = active.get(i);
+				final LayoutParams params = (LayoutParams) child.getLayoutParams();
+				boolean found = false;
+				for (int position = first; position <= last && !found; position++)
+					found = adapter.getItemId(position) == params.itemId;
+				if (!found) {
+					active.remove(i);
+					addScrapView(child, params.viewType);
+				}
+			}
+		}
+
+		/**
+		 * Moves the active views left after a rebuild to the scrap heaps.
+		 */
+		void scrapActiveViews() {
+			final ArrayList<View> active = mActiveViews;
+			for (int i = 0; i < active.size(); i++) {
+				final View child = active.get(i);
+				addScrapView(child, ((LayoutParams) child.getLayoutParams()).viewType);
+			}
+			active.clear();
+		}
+
+		@SuppressWarnings("unchecked")
+		void setViewTypeCount(int viewTypeCount) {
+			if (viewTypeCount < 1)
+				throw new IllegalArgumentException("Can't have a viewTypeCount < 1");
+			ArrayList<View>[] scrapViews = new ArrayList[viewTypeCount];
+			for (int i = 0; i < viewTypeCount; i++)
+				scrapViews[i] = new ArrayList<View>();
+			mScrapViews = scrapViews;
+		}
+
+		void addScrapView(View scrap, int viewType) {
+			if (viewType >= 0 && mScrapViews != null && viewType < mScrapViews.length)
+				mScrapViews[viewType].add(scrap);
+			else
+				mSkippedScrap.add(scrap);
+		}
+
+		/**
+		 * @return a scrap view to convert, or null if there is none of the
+		 *         type.
+		 */
+		View getScrapView(int viewType) {
+			if (viewType < 0 || mScrapViews == null || viewType >= mScrapViews.length)
+				return null;
+			final ArrayList<View> scrap = mScrapViews[viewType];
+			final int size = scrap.size();
+			return size > 0 ? scrap.remove(size - 1) : null;
+		}
+
+		/**
+		 * @return true if the view was detached by a rebuild and must be
+		 *         re-attached rather than added. It is no longer tracked as
+		 *         scrap.
+		 */
+		boolean reclaim(View child) {
+			if (mSkippedScrap.remove(child) || mActiveViews.remove(child))
+				return true;
+			if (mScrapViews != null) {
+				for (ArrayList<View> scrap : mScrapViews) {
+					if (scrap.remove(child))
+						return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Removes the views of ignored types the rebuild did not hand back.
+		 */
+		void removeSkippedScrap() {
+			for (int i = 0; i < mSkippedScrap.size(); i++)
+				removeDetachedView(mSkippedScrap.get(i), false);
+			mSkippedScrap.clear();
+		}
+
+		/**
+		 * Removes every scrap view.
+		 */
+		void clear() {
+			scrapActiveViews();
+			removeSkippedScrap();
+			if (mScrapViews == null)
+				return;
+			for (ArrayList<View> scrap : mScrapViews) {
+				for (int i = 0; i < scrap.size(); i++)
+					removeDetachedView(scrap.get(i), false);
+				scrap.clear();
+			}
+		}
+	}
+
 	public boolean performItemClick(View view, int position, long id) {
-		Log.d(VIEW_LOG_TAG, "performItemClick");
+		Logger.d(VIEW_LOG_TAG, "performItemClick");
 		boolean handled = false;
 		if (itemClickListener != null)
 			handled = itemClickListener.onItemClick(this, view, position, id);
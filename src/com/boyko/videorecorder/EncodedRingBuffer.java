@@ -0,0 +1,206 @@
+package com.boyko.videorecorder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fixed-size ring of encoded samples (access units) for one track. All
+ * memory is allocated up front: sample payloads are copied into a single byte
+ * array and their metadata into parallel arrays, so {@link #put} never
+ * allocates. When a new sample does not fit, the oldest samples are dropped.
+ * Samples are also dropped once they are older than the configured window,
+ * unless the ring is {@link #setHolding holding} them for a reader.
+ * <p>
+ * Every sample gets a sequence number in the order it was put, so a reader
+ * can {@link #poll} the samples up to a given point while writers go on.
+ * The class is thread safe; writers and readers can be on different threads.
+ */
+public class EncodedRingBuffer {
+
+	/**
+	 * Receives samples polled from the ring. The buffer passed in is shared
+	 * and only valid for the duration of the call.
+	 */
+	public interface SampleSink {
+		void writeSample(ByteBuffer buffer, int offset, int size, long presentationTimeUs, int flags);
+	}
+
+	/** Same value as MediaCodec.BUFFER_FLAG_SYNC_FRAME */
+	public static final int FLAG_SYNC_FRAME = 1;
+
+	private final byte[] data;
+	private final ByteBuffer dataView;
+	private final int[] offsets;
+	private final int[] sizes;
+	private final int[] flags;
+	private final long[] timestamps;
+	private final long[] sequences;
+	private final long windowUs;
+
+	/** Index of the oldest sample */
+	private int head;
+	private int count;
+	/** Byte offset the next sample will be written at */
+	private int writePos;
+	/** Sequence number of the next sample */
+	private long nextSequence;
+	/** Whether the time window is suspended */
+	private boolean holding;
+
+	/**
+	 * @param capacityBytes
+	 *            Bytes reserved for sample payloads.
+	 * @param maxSamples
+	 *            Maximum number of samples kept at once.
+	 * @param windowUs
+	 *            Samples older than this, relative to the newest one, are
+	 *            dropped.
+	 */
+	public EncodedRingBuffer(int capacityBytes, int maxSamples, long windowUs) {
+		data = new byte[capacityBytes];
+		dataView = ByteBuffer.wrap(data);
+		offsets = new int[maxSamples];
+		sizes = new int[maxSamples];
+		flags = new int[maxSamples];
+		timestamps = new long[maxSamples];
+		sequences = new long[maxSamples];
+		this.windowUs = windowUs;
+	}
+
+	/**
+	 * Copies a sample into the ring.
+	 *
+	 * @param src
+	 *            Buffer holding the sample between its position and limit.
+	 *            Its position is advanced by the sample size.
+	 * @return false if the sample is larger than the whole ring and was
+	 *         dropped.
+	 */
+	public synchronized boolean put(ByteBuffer src, long presentationTimeUs, int sampleFlags) {
+		final int size = src.remaining();
+		if (size > data.length)
+			return false;
+
+		while (count > 0 && (count == offsets.length || !reserve(size)))
+			dropOldest();
+		if (count == 0)
+			writePos = 0;
+
+		final int index = (head + count) % offsets.length;
+		src.get(data, writePos, size);
+		offsets[index] = writePos;
+		sizes[index] = size;
+		flags[index] = sampleFlags;
+		timestamps[index] = presentationTimeUs;
+		sequences[index] = nextSequence++;
+		writePos += size;
+		count++;
+
+		while (!holding && count > 1 && presentationTimeUs - timestamps[head] > windowUs)
+			dropOldest();
+		return true;
+	}
+
+	/**
+	 * Checks whether {@code size} contiguous bytes are free at the write
+	 * position, wrapping it to the start of the array if that is where the
+	 * space is.
+	 */
+	private boolean reserve(int size) {
+		final int readPos = offsets[head];
+		if (writePos > readPos) {
+			if (data.length - writePos >= size)
+				return true;
+			if (readPos >= size) {
+				writePos = 0;
+				return true;
+			}
+			return false;
+		}
+		return readPos - writePos >= size;
+	}
+
+	private void dropOldest() {
+		head = (head + 1) % offsets.length;
+		count--;
+	}
+
+	/**
+	 * While holding, samples are only dropped when the ring is full, not when
+	 * they leave the time window, so a slower reader can catch up.
+	 */
+	public synchronized void setHolding(boolean holding) {
+		this.holding = holding;
+	}
+
+	/**
+	 * @return sequence number the next sample put will get.
+	 */
+	public synchronized long getNextSequence() {
+		return nextSequence;
+	}
+
+	/**
+	 * @return presentation time of the oldest sample if its sequence number
+	 *         is below {@code endSequence}, or -1 otherwise.
+	 */
+	public synchronized long peekTimeUs(long endSequence) {
+		if (count == 0 || sequences[head] >= endSequence)
+			return -1;
+		return timestamps[head];
+	}
+
+	/**
+	 * Hands the oldest sample to the sink and removes it, if its sequence
+	 * number is below {@code endSequence}. The sink is called under the
+	 * ring's lock, so it should only copy the sample.
+	 *
+	 * @return false if there was no such sample.
+	 */
+	public synchronized boolean poll(SampleSink sink, long endSequence) {
+		if (count == 0 || sequences[head] >= endSequence)
+			return false;
+		dataView.limit(offsets[head] + sizes[head]);
+		dataView.position(offsets[head]);
+		sink.writeSample(dataView, offsets[head], sizes[head], timestamps[head], flags[head]);
+		dropOldest();
+		return true;
+	}
+
+	/**
+	 * @param minSequence
+	 *            Ignore samples put before this sequence number.
+	 * @return presentation time of the oldest sync frame in the ring, or -1
+	 *         if there is none.
+	 */
+	public synchronized long getFirstSyncFrameTimeUs(long minSequence) {
+		for (int i = 0; i < count; i++) {
+			final int index = (head + i) % offsets.length;
+			if (sequences[index] >= minSequence && (flags[index] & FLAG_SYNC_FRAME) != 0)
+				return timestamps[index];
+		}
+		return -1;
+	}
+
+	public synchronized void clear() {
+		head = 0;
+		count = 0;
+		writePos = 0;
+	}
+
+	public synchronized int getSampleCount() {
+		return count;
+	}
+
+	/**
+	 * @return duration covered by the buffered samples, in microseconds.
+	 */
+	public synchronized long getBufferedDurationUs() {
+		if (count == 0)
+			return 0;
+		return timestamps[(head + count - 1) % offsets.length] - timestamps[head];
+	}
+
+	public int getCapacityBytes() {
+		return data.length;
+	}
+}
@@ -3,6 +3,8 @@ package com.boyko.videorecorder;
 import android.net.Uri;
 
 public class FriendStub{
+	/** Stable identifier, never -1 which is the camera tile's */
+	long id;
 	String name;
 	Uri videoPath;
 	String imagePath;
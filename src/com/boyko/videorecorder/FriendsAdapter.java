@@ -1,10 +1,10 @@
 package com.boyko.videorecorder;
 
-import java.io.IOException;
 import java.util.List;
 
 import android.content.Context;
-import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.TextureView;
 import android.view.View;
@@ -17,20 +17,47 @@ public class FriendsAdapter extends BaseAdapter {
 
 	private Context context;
 	private List<FriendStub> list;
+	/**
+	 * The camera tile. Created once and handed out for every rebind, so its
+	 * SurfaceTexture and the camera session drawing into it outlive data set
+	 * changes.
+	 */
 	private PreviewTextureView preview;
 	private boolean isRecording;
+	private RecordingHud hud;
 	
 	private TextureView.SurfaceTextureListener listener;
+	private final ThumbnailLoader thumbnailLoader;
 
 	public FriendsAdapter(Context context, List<FriendStub> list) {
 		this.context = context;
 		this.list = list;
+		thumbnailLoader = new ThumbnailLoader(context);
+	}
+
+	public ThumbnailLoader getThumbnailLoader() {
+		return thumbnailLoader;
+	}
+
+	/**
+	 * Stops loading thumbnails. The adapter must not be used afterwards.
+	 */
+	public void release() {
+		thumbnailLoader.release();
 	}
 
 	public void setListener(TextureView.SurfaceTextureListener listener) {
 		this.listener = listener;
+		if (preview != null)
+			preview.setSurfaceTextureListener(listener);
 	}
 	
+	public void setHud(RecordingHud hud) {
+		this.hud = hud;
+		if (preview != null)
+			preview.setHud(hud);
+	}
+
 	public void setRecording(boolean b) {
 		isRecording = b;
 		if(preview!=null)
@@ -54,10 +81,20 @@ public class FriendsAdapter extends BaseAdapter {
 	public long getItemId(int position) {
 		if (position == getCount() / 2)
 			return -1;
-		if (position < (int) (getCount() / 2))
-			return position;
-		else
-			return position - 1;
+		return getItem(position).id;
+	}
+
+	@Override
+	public boolean hasStableIds() {
+		return true;
+	}
+
+	@Override
+	public int getItemViewType(int position) {
+		// The camera tile is never recycled
+		if (position == getCount() / 2)
+			return IGNORE_ITEM_VIEW_TYPE;
+		return 0;
 	}
 
 	@Override
@@ -73,27 +110,67 @@ public class FriendsAdapter extends BaseAdapter {
 	}
 
 	private View getUserView(int position, View convertView, ViewGroup parent) {
-		preview = new PreviewTextureView(context);
-		preview.setSurfaceTextureListener(listener);
+		if (preview == null) {
+			preview = new PreviewTextureView(context);
+			preview.setSurfaceTextureListener(listener);
+			preview.setHud(hud);
+		}
 		preview.setRecording(isRecording);
 		return preview;
 	}
 
 	private View getFriendView(int position, View convertView, ViewGroup parent) {
-		View v = LayoutInflater.from(context).inflate(R.layout.friendview_item, null);
-
-		TextView tw_name = (TextView) v.findViewById(R.id.textView1);
-		ImageView img_thumb = (ImageView) v.findViewById(R.id.img_thumb);
+		View v = convertView;
+		ViewHolder holder;
+		if (v == null) {
+			v = LayoutInflater.from(context).inflate(R.layout.friendview_item, null);
+			holder = new ViewHolder();
+			holder.tw_name = (TextView) v.findViewById(R.id.textView1);
+			holder.img_thumb = (ImageView) v.findViewById(R.id.img_thumb);
+			v.setTag(holder);
+		} else {
+			holder = (ViewHolder) v.getTag();
+		}
 
+		// A view handed back for the same friend is only updated where the
+		// data changed
 		FriendStub st = getItem(position);
-		try {
-			Drawable d = Drawable.createFromStream(context.getAssets().open(st.imagePath), null);
-			img_thumb.setImageDrawable(d);
-		} catch (IOException e) {
-			e.printStackTrace();
+		// Friends without an image show a frame of their clip
+		final Uri poster = st.imagePath == null ? st.videoPath : null;
+		if (poster != null ? !poster.equals(holder.poster) : !TextUtils.equals(st.imagePath, holder.imagePath)) {
+			holder.imagePath = st.imagePath;
+			holder.poster = poster;
+			// Bundled images come from the atlas, others are decoded off the
+			// UI thread at the size of the grid cell
+			int width = parent.getWidth();
+			int height = parent.getHeight();
+			if (parent instanceof CustomAdapterView) {
+				width = ((CustomAdapterView) parent).getColumnWidth();
+				height = ((CustomAdapterView) parent).getRowHeight();
+			}
+			if (poster != null) {
+				thumbnailLoader.loadPoster(poster, holder.img_thumb, width, height);
+			} else if (st.imagePath != null) {
+				thumbnailLoader.load(st.imagePath, holder.img_thumb, width, height);
+			} else {
+				thumbnailLoader.cancel(holder.img_thumb);
+				holder.img_thumb.setImageDrawable(null);
+			}
 		}
 
-		tw_name.setText(st.name);
+		if (st.name == null || !st.name.equals(holder.name)) {
+			holder.name = st.name;
+			holder.tw_name.setText(st.name);
+		}
 		return v;
 	}
+
+	private static class ViewHolder {
+		TextView tw_name;
+		ImageView img_thumb;
+		/** What the views currently show */
+		String name;
+		String imagePath;
+		Uri poster;
+	}
 }
\ No newline at end of file
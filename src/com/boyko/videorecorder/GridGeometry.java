@@ -0,0 +1,136 @@
+package com.boyko.videorecorder;
+
+/**
+ * Cell geometry of a grid with fixed-size cells and spacing between them.
+ * Maps a point to an adapter position and a position to its cell bounds with
+ * a few integer operations, whatever the number of items or the scroll
+ * offset. Coordinates are in the grid view, scroll offsets in content
+ * pixels.
+ * <p>
+ * This class has no Android dependencies.
+ */
+public class GridGeometry {
+
+	public static final int INVALID_POSITION = -1;
+
+	private final int numColumns;
+	private final int visibleRows;
+	private final int horizontalSpacing;
+	private final int verticalSpacing;
+
+	private int width;
+	private int height;
+	private int columnWidth;
+	private int rowHeight;
+
+	/**
+	 * @param numColumns
+	 *            Cells per row.
+	 * @param visibleRows
+	 *            Rows that fit the height of the view.
+	 */
+	public GridGeometry(int numColumns, int visibleRows, int horizontalSpacing, int verticalSpacing) {
+		this.numColumns = numColumns;
+		this.visibleRows = visibleRows;
+		this.horizontalSpacing = horizontalSpacing;
+		this.verticalSpacing = verticalSpacing;
+	}
+
+	/**
+	 * Recomputes the cell size for the view's size.
+	 * 
+	 * @return true if the cell size changed.
+	 */
+	public boolean setSize(int width, int height) {
+		this.width = width;
+		this.height = height;
+		int columnWidth = Math.max(0, (width - horizontalSpacing * (numColumns - 1)) / numColumns);
+		int rowHeight = Math.max(0, (height - verticalSpacing * (visibleRows - 1)) / visibleRows);
+		boolean changed = columnWidth != this.columnWidth || rowHeight != this.rowHeight;
+		this.columnWidth = columnWidth;
+		this.rowHeight = rowHeight;
+		return changed;
+	}
+
+	public int getNumColumns() {
+		return numColumns;
+	}
+
+	public int getColumnWidth() {
+		return columnWidth;
+	}
+
+	public int getRowHeight() {
+		return rowHeight;
+	}
+
+	public int getRow(int position) {
+		return position / numColumns;
+	}
+
+	public int getRowCount(int count) {
+		return (count + numColumns - 1) / numColumns;
+	}
+
+	/**
+	 * @return index of the row at a content y, rows and the spacing below
+	 *         them counted together.
+	 */
+	public int getRowAt(int contentY) {
+		if (contentY <= 0)
+			return 0;
+		return contentY / (rowHeight + verticalSpacing);
+	}
+
+	public int getContentHeight(int count) {
+		final int rows = getRowCount(count);
+		return rows == 0 ? 0 : rows * rowHeight + (rows - 1) * verticalSpacing;
+	}
+
+	public int getMaxScrollY(int count) {
+		return Math.max(0, getContentHeight(count) - height);
+	}
+
+	public int getCellLeft(int position) {
+		return (position % numColumns) * (columnWidth + horizontalSpacing);
+	}
+
+	public int getCellTop(int position, int scrollY) {
+		return (position / numColumns) * (rowHeight + verticalSpacing) - scrollY;
+	}
+
+	/**
+	 * @param bounds
+	 *            Receives left, top, right and bottom of the cell, in that
+	 *            order.
+	 */
+	public void getCellBounds(int position, int scrollY, int[] bounds) {
+		final int left = getCellLeft(position);
+		final int top = getCellTop(position, scrollY);
+		bounds[0] = left;
+		bounds[1] = top;
+		bounds[2] = left + columnWidth;
+		bounds[3] = top + rowHeight;
+	}
+
+	/**
+	 * @return the position of the cell under the point, or
+	 *         {@link #INVALID_POSITION} if the point is outside the grid, in
+	 *         the spacing between cells or past the last item.
+	 */
+	public int pointToPosition(int x, int y, int scrollY, int count) {
+		if (x < 0 || y < 0 || x >= width || y >= height || columnWidth == 0 || rowHeight == 0)
+			return INVALID_POSITION;
+		final int columnStride = columnWidth + horizontalSpacing;
+		final int column = x / columnStride;
+		if (column >= numColumns || x - column * columnStride >= columnWidth)
+			return INVALID_POSITION;
+		final int contentY = y + scrollY;
+		final int rowStride = rowHeight + verticalSpacing;
+		final int row = contentY / rowStride;
+		if (contentY - row * rowStride >= rowHeight)
+			return INVALID_POSITION;
+		final int position = row * numColumns + column;
+		return position < count ? position : INVALID_POSITION;
+	}
+}
@@ -8,6 +8,7 @@ public class GridViewActivity extends Activity {
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
+		Logger.init(this);
 		setContentView(R.layout.fragment_activity);
 	}
 }
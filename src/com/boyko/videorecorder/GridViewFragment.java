@@ -1,22 +1,30 @@
 package com.boyko.videorecorder;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import android.app.Fragment;
+import android.annotation.TargetApi;
+import android.content.SharedPreferences;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.media.CamcorderProfile;
-import android.media.MediaPlayer;
-import android.media.MediaPlayer.OnCompletionListener;
 import android.media.MediaRecorder;
 import android.media.MediaRecorder.OnInfoListener;
 import android.net.Uri;
-import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
+import android.view.TextureView;
 import android.view.TextureView.SurfaceTextureListener;
 import android.view.Surface;
 import android.view.View;
@@ -24,26 +32,191 @@ import android.view.ViewGroup;
 import android.widget.FrameLayout;
 import android.widget.FrameLayout.LayoutParams;
 import android.widget.Toast;
-import android.widget.VideoView;
 
 import com.boyko.videorecorder.CustomAdapterView.OnItemTouchListener;
+import com.boyko.videorecorder.CustomAdapterView.OnSpeculativeTouchListener;
+import com.boyko.videorecorder.CustomAdapterView.OnVisibleRangeChangeListener;
+import com.boyko.videorecorder.CustomAdapterView.OnWindowChangeListener;
 import com.example.android.common.media.CameraHelper;
 
 public class GridViewFragment extends Fragment {
 
+	/**
+	 * Set on the main thread; every call on it goes through
+	 * {@link #cameraController}.
+	 */
 	private Camera camera;
-
-	private MediaRecorder mediaRecorder;
+	/** Runs every camera operation on its own thread */
+	private CameraController cameraController;
+
+	private CapabilityCache capabilityCache;
+
+	// Owned by the camera thread
+	private CameraCapabilities capabilities;
+	/** Applied when the preview starts, recording reuses it as is */
+	private CaptureConfig captureConfig;
+	/** Also read by the HUD's sampler thread */
+	private volatile MediaRecorder mediaRecorder;
+	private File recordingFile;
+	private MediaRecorder armedRecorder;
+	private File armedFile;
+
+	/** A recording was requested and has not been stopped yet */
 	private boolean isRecording;
-	private boolean isPlaying;
+
+	/**
+	 * When set, a fully prepared {@link MediaRecorder} is kept ready while the
+	 * camera tile is visible so a long press only has to call start().
+	 */
+	private volatile boolean isPreWarm = true;
+	private volatile long touchTime;
+	private final LatencyMeter armedStartLatency = new LatencyMeter("touch to first frame (armed)");
+	private final LatencyMeter coldStartLatency = new LatencyMeter("touch to first frame (cold)");
+
+	/**
+	 * When set, recording starts on touch down and is only kept if the touch
+	 * becomes a long press.
+	 */
+	private boolean isSpeculativeStart;
+	/**
+	 * A clip was started on touch down and the long press has not confirmed it
+	 * yet
+	 */
+	private volatile boolean isSpeculative;
+	private final LatencyMeter speculativeStartLatency = new LatencyMeter("touch to first frame (speculative)");
+
+	/** Records through a {@link MediaRecorder} prepared per clip */
+	public static final int CAPTURE_MODE_RECORDER = 0;
+	/**
+	 * Encodes continuously through {@link PreRollRecorder} so each clip
+	 * includes the seconds before the press. Needs API 18.
+	 */
+	public static final int CAPTURE_MODE_PRE_ROLL = 1;
+	private static final int PRE_ROLL_SECONDS = 3;
+	private static final int PRE_ROLL_MAX_BYTES = 4 * 1024 * 1024;
+	private volatile int captureMode = CAPTURE_MODE_RECORDER;
+	private volatile PreRollRecorder preRoll;
+
+	/** Elapsed time and audio level on the camera tile while recording */
+	private RecordingHud hud;
+	private final RecordingHud.AmplitudeSource amplitudeSource = new RecordingHud.AmplitudeSource() {
+		@Override
+		public int getMaxAmplitude() {
+			if (captureMode == CAPTURE_MODE_PRE_ROLL) {
+				final PreRollRecorder recorder = preRoll;
+				return recorder != null ? recorder.getMaxAmplitude() : 0;
+			}
+			final MediaRecorder recorder = mediaRecorder;
+			return recorder != null ? recorder.getMaxAmplitude() : 0;
+		}
+	};
+
+	/** Stops and closes recordings off the UI thread */
+	private RecordingFinalizer finalizer;
+	private final RecordingFinalizer.Callback finalizeCallback = new RecordingFinalizer.Callback() {
+		@Override
+		public void onCameraReady() {
+			armRecorder();
+		}
+
+		@Override
+		public void onFinalized(File file) {
+			if (file == null) {
+				if (getActivity() != null)
+					Toast.makeText(getActivity(), "Video is too short", Toast.LENGTH_SHORT).show();
+			} else {
+				Logger.d("RECORD SAVED " + file);
+				addClip(file);
+			}
+		}
+	};
+
+	/**
+	 * Resets the recording state when a start request could not be carried
+	 * out.
+	 */
+	private final CameraController.Callback<Boolean> startCallback = new CameraController.Callback<Boolean>() {
+		@Override
+		public void onResult(Boolean started) {
+			if (started == null || !started) {
+				isRecording = false;
+				isSpeculative = false;
+				hud.stop();
+				adapter.setRecording(false);
+			}
+		}
+	};
+
+	private final CameraController.Callback<Void> discardCallback = new CameraController.Callback<Void>() {
+		@Override
+		public void onResult(Void result) {
+			if (!isRecording) {
+				hud.stop();
+				adapter.setRecording(false);
+			}
+			armRecorder();
+		}
+	};
 	private int currentItemPlayed = -1;
+	/**
+	 * Decoders the grid's players share. The tiles playing inline take theirs
+	 * first; the tapped clip and the players prepared for the cells around
+	 * the visible ones get the rest.
+	 */
+	private static final int DECODER_BUDGET = 3;
+	private PlayerPool playerPool;
+	private final PlayerPool.Listener playbackListener = new PlayerPool.Listener() {
+		@Override
+		public void onCompletion() {
+			stopPlayback();
+		}
+	};
+	private final Runnable preloadRunnable = new Runnable() {
+		@Override
+		public void run() {
+			preloadClips();
+		}
+	};
+	/** Where clips play, null until its surface exists */
+	private Surface videoSurface;
+	/** Clip to start once the surface exists */
+	private Uri pendingVideo;
+	private long tapTime;
+	private boolean awaitingFirstFrame;
+	private final LatencyMeter firstFrameLatency = new LatencyMeter("tap to first frame");
+
+	/**
+	 * Decoders visible friend tiles may use at once to loop their clips, all
+	 * of the budget but the one kept for a tapped clip
+	 */
+	private static final int DEFAULT_AUTOPLAY_BUDGET = DECODER_BUDGET - 1;
+	private static final String PREF_AUTOPLAY = "autoplay";
+	private static final long AUTOPLAY_SLICE_MS = 5000;
+	private static final long AUTOPLAY_TICK_MS = 1000;
+	/** On unless turned off from the options menu */
+	private boolean isAutoplay;
+	private int autoplayBudget = DEFAULT_AUTOPLAY_BUDGET;
+	private AutoplayScheduler autoplay;
+	private final Runnable autoplayTick = new Runnable() {
+		@Override
+		public void run() {
+			if (autoplay == null || !isAutoplay || !isResumed())
+				return;
+			autoplay.tick(SystemClock.uptimeMillis());
+			updateDecoderBudget();
+			gridView.postDelayed(this, AUTOPLAY_TICK_MS);
+		}
+	};
 	
 	private CustomAdapterView gridView;
 	private List<FriendStub> list;
+	private long lastStubId;
 
 	private FriendsAdapter adapter;
 
-	private VideoView videoView;
+	private TextureView videoView;
+	/** Hides the previous clip's last frame until the new one draws */
+	private View videoCover;
 
 	private View videoBody;
 
@@ -53,73 +226,167 @@ public class GridViewFragment extends Fragment {
 
 	private int surfaceHeight;
 
+	@Override
+	public void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		cameraController = new CameraController();
+		capabilityCache = CapabilityCache.getInstance(getActivity());
+		finalizer = new RecordingFinalizer(cameraController);
+		hud = new RecordingHud(amplitudeSource);
+		isAutoplay = PreferenceManager.getDefaultSharedPreferences(getActivity()).getBoolean(PREF_AUTOPLAY, true);
+		setHasOptionsMenu(true);
+	}
+
+	@Override
+	public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+		inflater.inflate(R.menu.grid_menu, menu);
+	}
+
+	@Override
+	public void onPrepareOptionsMenu(Menu menu) {
+		menu.findItem(R.id.autoplay).setChecked(isAutoplay);
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(MenuItem item) {
+		if (item.getItemId() == R.id.autoplay) {
+			setAutoplay(!isAutoplay);
+			final SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(getActivity())
+					.edit();
+			editor.putBoolean(PREF_AUTOPLAY, isAutoplay);
+			editor.apply();
+			return true;
+		}
+		return super.onOptionsItemSelected(item);
+	}
+
+	@Override
+	public void onDestroyView() {
+		super.onDestroyView();
+		if (adapter != null)
+			adapter.release();
+		playerPool.release();
+		gridView.removeCallbacks(autoplayTick);
+		autoplay.clear();
+		autoplay = null;
+		if (videoSurface != null) {
+			videoSurface.release();
+			videoSurface = null;
+		}
+	}
+
+	@Override
+	public void onDestroy() {
+		super.onDestroy();
+		// Teardown goes from the camera thread to the finalizer and back, so
+		// both quit in that order
+		cameraController.post(new Runnable() {
+			@Override
+			public void run() {
+				finalizer.quit();
+			}
+		});
+		hud.quit();
+	}
+
 	@Override
 	public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
 		View v = inflater.inflate(R.layout.video_gridview_fragment, null);
 		
 		videoBody = v.findViewById(R.id.video_body);
-		videoView = (VideoView)v.findViewById(R.id.video_view);
-		videoView.setOnCompletionListener(new OnCompletionListener() {
+		videoCover = v.findViewById(R.id.video_cover);
+		videoView = (TextureView)v.findViewById(R.id.video_view);
+		playerPool = new PlayerPool(getActivity(), DECODER_BUDGET);
+		videoView.setSurfaceTextureListener(new SurfaceTextureListener() {
 			@Override
-			public void onCompletion(MediaPlayer mp) {
-				Log.d(getTag(), videoView.getX()+", " +videoView.getX() + ", " + videoView.getWidth() +", " + videoView.getHeight());
-				videoBody.setVisibility(View.INVISIBLE);
-				
+			public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
+				videoSurface = new Surface(surface);
+				if (pendingVideo != null) {
+					playerPool.play(pendingVideo, videoSurface, playbackListener);
+					pendingVideo = null;
+				}
+			}
+
+			@Override
+			public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
+			}
+
+			@Override
+			public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+				playerPool.stop();
+				if (videoSurface != null) {
+					videoSurface.release();
+					videoSurface = null;
+				}
+				return true;
+			}
+
+			@Override
+			public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+				if (awaitingFirstFrame) {
+					awaitingFirstFrame = false;
+					firstFrameLatency.record(SystemClock.uptimeMillis() - tapTime);
+					videoCover.setVisibility(View.INVISIBLE);
+				}
 			}
 		});
 	
 		gridView = (CustomAdapterView)v.findViewById(R.id.grid_view);
+		autoplay = new AutoplayScheduler(new InlineAutoplay(getActivity(), gridView), autoplayBudget,
+				AUTOPLAY_SLICE_MS);
 		gridView.setItemClickListener(new OnItemTouchListener() {
 			@Override
 			public boolean onItemClick(CustomAdapterView parent, View view, int position, long id) {
 				if(id == -1)
 					return false;
 				
-				videoView.stopPlayback();
-				if(isPlaying && currentItemPlayed == position){
-					videoBody.setVisibility(View.INVISIBLE);
-					currentItemPlayed = -1;
-				}else{
+				if (currentItemPlayed == position) {
+					stopPlayback();
+				} else {
 					FriendStub fs = (FriendStub)((FriendsAdapter)parent.getAdapter()).getItem(position);
-					videoView.setVideoURI(fs.videoPath);
 					LayoutParams params = new FrameLayout.LayoutParams(view.getWidth(), view.getHeight());
 					videoBody.setLayoutParams(params);
 					videoBody.setX(view.getX());
 					videoBody.setY(view.getY());
 					videoBody.setVisibility(View.VISIBLE);
-					videoView.start();
+					videoCover.setVisibility(View.VISIBLE);
+					tapTime = SystemClock.uptimeMillis();
+					awaitingFirstFrame = true;
 					currentItemPlayed = position;
+					if (videoSurface != null) {
+						playerPool.play(fs.videoPath, videoSurface, playbackListener);
+					} else {
+						// First playback, the surface is created once the
+						// view is shown
+						pendingVideo = fs.videoPath;
+					}
 				}
-				isPlaying = !isPlaying;
 				return true;
 			}
 			@Override
 			public boolean onItemLongClick(CustomAdapterView parent, View view, int position, long id) {
 				Logger.d("START RECORD");
-				if(id == -1)
+				if(id == -1 || camera == null)
 					return false;
 
 				adapter.setRecording(true);
-				new MediaPrepareTask().execute();
+				if (isSpeculative) {
+					// Keep the clip that was started on touch down
+					isSpeculative = false;
+					Logger.d("KEEP SPECULATIVE RECORD, started at " + touchTime);
+					hud.start(touchTime);
+					return true;
+				}
+				touchTime = SystemClock.uptimeMillis();
+				hud.start(touchTime);
+				isRecording = true;
+				cameraController.call(new StartRecording(camera), startCallback);
 				return true;
 			}
 			@Override
 			public boolean onItemStopTouch() {
 				if (isRecording) {
-					Logger.d("STOP RECORD");
-					adapter.setRecording(false);
-					// stop recording and release camera
-					try{
-						mediaRecorder.stop(); // stop the recording
-					}catch(RuntimeException e){
-						Toast.makeText(getActivity(), "Video is too short", Toast.LENGTH_SHORT).show();
-					}
-					releaseMediaRecorder(); // release the MediaRecorder object
-					camera.lock(); // take camera access back from
-									// MediaRecorder
-
-					// inform the user that recording has stopped
-					isRecording = false;
+					stopRecording();
 				}
 				return false;
 			}
@@ -128,27 +395,129 @@ public class GridViewFragment extends Fragment {
 			public boolean onCancelTouch() {
 				Log.d(getTag(), "onCancelTouch");
 				if (isRecording) {
-					Logger.d("STOP RECORD");
-					adapter.setRecording(false);
-					// stop recording and release camera
-					try{
-						mediaRecorder.stop(); // stop the recording
-					}catch(RuntimeException e){
-						Toast.makeText(getActivity(), "Video is too short", Toast.LENGTH_SHORT).show();
-					}
-					releaseMediaRecorder(); // release the MediaRecorder object
-					camera.lock(); // take camera access back from
-									// MediaRecorder
-
-					// inform the user that recording has stopped
-					isRecording = false;
+					stopRecording();
 				}
 				return false;
 			}
 		});
+		gridView.setSpeculativeListener(new OnSpeculativeTouchListener() {
+			@Override
+			public boolean onSpeculativeStart(CustomAdapterView parent, View view, int position, long id,
+					long downTime) {
+				// Same cells as onItemLongClick
+				if (!isSpeculativeStart || captureMode != CAPTURE_MODE_RECORDER || id == -1 || camera == null
+						|| isRecording)
+					return false;
+				Logger.d("START SPECULATIVE RECORD");
+				isSpeculative = true;
+				isRecording = true;
+				touchTime = downTime;
+				cameraController.call(new StartRecording(camera), startCallback);
+				return true;
+			}
+
+			@Override
+			public void onSpeculativeDiscard() {
+				if (!isSpeculative)
+					return;
+				Logger.d("DISCARD SPECULATIVE RECORD");
+				isSpeculative = false;
+				isRecording = false;
+				cameraController.call(new DiscardRecording(camera), discardCallback);
+			}
+		});
 		return v;
 	}
 
+	private void stopPlayback() {
+		playerPool.stop();
+		pendingVideo = null;
+		awaitingFirstFrame = false;
+		currentItemPlayed = -1;
+		videoBody.setVisibility(View.INVISIBLE);
+	}
+
+	/**
+	 * Keeps players prepared for the clips of the cells that have views,
+	 * visible ones first.
+	 */
+	private void preloadClips() {
+		if (adapter == null || getView() == null)
+			return;
+		final int first = gridView.getFirstPosition();
+		final int last = first + gridView.getChildCount() - 1;
+		final int firstVisible = gridView.getFirstVisiblePosition();
+		final int lastVisible = Math.min(last, gridView.getLastVisiblePosition());
+		final List<Uri> clips = new ArrayList<Uri>(gridView.getChildCount());
+		addClips(clips, firstVisible, lastVisible);
+		addClips(clips, lastVisible + 1, last);
+		addClips(clips, first, firstVisible - 1);
+		playerPool.preload(clips);
+	}
+
+	private void addClips(List<Uri> clips, int from, int to) {
+		for (int position = Math.max(0, from); position <= to; position++) {
+			if (adapter.getItemId(position) != -1)
+				clips.add(adapter.getItem(position).videoPath);
+		}
+	}
+
+	/**
+	 * Hands the visible friend tiles to the autoplay scheduler, or stops
+	 * them all when autoplay is off or the fragment is not resumed.
+	 */
+	private void updateAutoplay() {
+		if (autoplay == null)
+			return;
+		if (!isAutoplay || !isResumed() || adapter == null) {
+			autoplay.clear();
+			updateDecoderBudget();
+			return;
+		}
+		final int first = gridView.getFirstVisiblePosition();
+		final int last = gridView.getLastVisiblePosition();
+		final List<Long> tiles = new ArrayList<Long>(Math.max(0, last - first + 1));
+		for (int position = first; position <= last; position++) {
+			final long id = adapter.getItemId(position);
+			if (id != -1 && adapter.getItem(position).videoPath != null)
+				tiles.add(id);
+		}
+		autoplay.setVisibleTiles(tiles, SystemClock.uptimeMillis());
+		updateDecoderBudget();
+	}
+
+	/**
+	 * Leaves the player pool the decoders the inline tiles do not use, and
+	 * preloads again if that is more than before.
+	 */
+	private void updateDecoderBudget() {
+		if (playerPool == null)
+			return;
+		final int inline = autoplay != null ? autoplay.getPlaying().size() : 0;
+		final int capacity = DECODER_BUDGET - inline;
+		final int previous = playerPool.getCapacity();
+		playerPool.setCapacity(capacity);
+		if (playerPool.getCapacity() > previous) {
+			gridView.removeCallbacks(preloadRunnable);
+			gridView.post(preloadRunnable);
+		}
+	}
+
+	/**
+	 * Adds a tile for a recorded clip. It has no image, so the tile shows a
+	 * poster frame once one is extracted.
+	 */
+	private void addClip(File file) {
+		if (getView() == null)
+			return;
+		FriendStub stub = new FriendStub();
+		stub.id = ++lastStubId;
+		stub.name = file.getName();
+		stub.videoPath = Uri.fromFile(file);
+		list.add(stub);
+		adapter.notifyDataSetChanged();
+	}
+
 	@Override
 	public void onViewCreated(View view, Bundle savedInstanceState) {
 		super.onViewCreated(view, savedInstanceState);
@@ -157,14 +526,33 @@ public class GridViewFragment extends Fragment {
 		
 		for (int i = 1; i<9; i++) {
 			FriendStub stub = new FriendStub();
+			stub.id = i;
 			stub.name = "friend "+ (i);
 			stub.videoPath = Uri.parse("android.resource://" + getActivity().getPackageName() + "/" + R.raw.small);
 			stub.imagePath = i+".jpg";
 			list.add(stub);
 		}
+		lastStubId = list.size();
 		
 		adapter = new FriendsAdapter(getActivity(), list);
+		adapter.setHud(hud);
 		gridView.setAdapter(adapter);
+		gridView.setWindowChangeListener(new OnWindowChangeListener() {
+			@Override
+			public void onWindowChanged(CustomAdapterView parent, int firstPosition, int count) {
+				// Not during layout, opening players takes a moment
+				parent.removeCallbacks(preloadRunnable);
+				parent.post(preloadRunnable);
+			}
+		});
+		gridView.setVisibleRangeChangeListener(new OnVisibleRangeChangeListener() {
+			@Override
+			public void onVisibleRangeChanged(CustomAdapterView parent, int firstVisiblePosition,
+					int lastVisiblePosition) {
+				// Tiles that left the viewport give up their decoders now
+				updateAutoplay();
+			}
+		});
 		
 		adapter.setListener(new SurfaceTextureListener() {
 			
@@ -180,14 +568,31 @@ public class GridViewFragment extends Fragment {
 			@Override
 			public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
 				Log.d(getTag(), "onSurfaceTextureDestroyed");
-				camera.stopPreview();
-					camera.release();
-					camera = null;
-		          return true;
+				GridViewFragment.this.surface = null;
+				if (isRecording)
+					stopRecording();
+				disarmRecorder();
+				final PreRollRecorder roll = preRoll;
+				final Camera released = camera;
+				final SurfaceTexture texture = surface;
+				preRoll = null;
+				camera = null;
+				cameraController.post(new Runnable() {
+					@Override
+					public void run() {
+						if (roll != null)
+							roll.release();
+						// Posted from here, behind the stopRecording() above,
+						// so the finalizer locks the camera before this
+						finalizer.releaseCamera(released, texture);
+					}
+				});
+				// The texture is released once the camera stopped drawing
+				return false;
 			}
 			
 			@Override
-			public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
+			public void onSurfaceTextureAvailable(final SurfaceTexture surface, final int width, final int height) {
 				Log.d(getTag(), "onSurfaceTextureAvailable");
 
 				
@@ -195,15 +600,41 @@ public class GridViewFragment extends Fragment {
 				GridViewFragment.this.surfaceWidth = width;
 				GridViewFragment.this.surfaceHeight = height;
 				
-		          try {
-		        	  camera = CameraHelper.getDefaultFrontFacingCameraInstance();
-		        	  camera.setPreviewTexture(surface);
-		              camera.setDisplayOrientation(90);
-		              camera.startPreview();
-		          } catch (IOException ioe) {
-		              // Something bad happened
-		          }
-				
+				cameraController.call(new Callable<Camera>() {
+					@Override
+					public Camera call() throws IOException {
+						int cameraId = CameraHelper.getDefaultFrontFacingCameraId();
+						if (cameraId == -1)
+							return null;
+						Camera camera = Camera.open(cameraId);
+						capabilities = capabilityCache.obtain(cameraId, camera);
+						captureConfig = CaptureConfigSolver.solve(capabilities, width, height,
+								CamcorderProfile.QUALITY_HIGH);
+						Camera.Parameters parameters = camera.getParameters();
+						CameraController.configure(parameters, captureConfig);
+						camera.setParameters(parameters);
+						camera.setPreviewTexture(surface);
+						camera.setDisplayOrientation(90);
+						camera.startPreview();
+						return camera;
+					}
+				}, new CameraController.Callback<Camera>() {
+					@Override
+					public void onResult(Camera result) {
+						if (result == null)
+							return;
+						if (GridViewFragment.this.surface != surface) {
+							// The tile went away while the camera was opening
+							cameraController.release(result, null);
+							return;
+						}
+						camera = result;
+						if (captureMode == CAPTURE_MODE_PRE_ROLL)
+							startPreRoll();
+						else
+							armRecorder();
+					}
+				});
 			}
 		});
 	}
@@ -212,6 +643,10 @@ public class GridViewFragment extends Fragment {
 	public void onResume() {
 		super.onResume();
 		Log.d(getTag(), "onResume");
+		armRecorder();
+		updateAutoplay();
+		gridView.removeCallbacks(autoplayTick);
+		gridView.postDelayed(autoplayTick, AUTOPLAY_TICK_MS);
 		// Open the default i.e. the first rear facing camera.
 //		if (camera == null)
 //			camera = CameraHelper.getDefaultCameraInstance();
@@ -222,58 +657,226 @@ public class GridViewFragment extends Fragment {
 	public void onPause() {
 		super.onPause();
 		if (isRecording) {
-			mediaRecorder.stop();
-			releaseMediaRecorder();
-			camera.lock();
+			stopRecording();
 		}
+		disarmRecorder();
+		gridView.removeCallbacks(autoplayTick);
+		autoplay.clear();
+		updateDecoderBudget();
+		armedStartLatency.logSummary();
+		coldStartLatency.logSummary();
+		speculativeStartLatency.logSummary();
+		firstFrameLatency.logSummary();
+		if (adapter != null)
+			adapter.getThumbnailLoader().logLatencies();
 		// Because the Camera object is a shared resource, it's very
 		// important to release it when the activity is paused.
 	}
 	
-	void prepareRecorder() {
-		CamcorderProfile profile = CamcorderProfile.get(CamcorderProfile.QUALITY_HIGH);
-		Camera.Parameters parameters = camera.getParameters();
+	/**
+	 * Stops the current recording, whichever capture mode it was started in.
+	 * Returns immediately; the stop is queued behind any pending start on the
+	 * camera thread, and the file is closed on the finalizer thread, which
+	 * then reports through {@link #finalizeCallback}.
+	 */
+	private void stopRecording() {
+		Logger.d("STOP RECORD");
+		hud.stop();
+		adapter.setRecording(false);
+		isRecording = false;
+		final Camera camera = this.camera;
+		cameraController.post(new Runnable() {
+			@Override
+			public void run() {
+				if (captureMode == CAPTURE_MODE_PRE_ROLL && preRoll != null) {
+					RecordingFinalizer.Job job = preRoll.detachRecording();
+					if (job != null)
+						finalizer.submit(job, finalizeCallback);
+				} else if (mediaRecorder != null) {
+					finalizer.submit(mediaRecorder, camera, recordingFile, finalizeCallback);
+					mediaRecorder = null;
+				}
+				recordingFile = null;
+			}
+		});
+	}
+
+	public int getCaptureMode() {
+		return captureMode;
+	}
+
+	/**
+	 * Switches between {@link #CAPTURE_MODE_RECORDER} and
+	 * {@link #CAPTURE_MODE_PRE_ROLL}. Takes effect the next time the camera
+	 * tile becomes available.
+	 */
+	public void setCaptureMode(int captureMode) {
+		this.captureMode = captureMode;
+	}
 
-		List<Camera.Size> mSupportedPreviewSizes = parameters.getSupportedPreviewSizes();
-		Camera.Size optimalSize = CameraHelper.getOptimalPreviewSize(mSupportedPreviewSizes, surfaceWidth,
-				surfaceHeight);
+	/**
+	 * Starts encoding the preview into the pre-roll rings, on the camera
+	 * thread. The preview already runs at the solved capture size.
+	 */
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+	private void startPreRoll() {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+			Logger.w(getTag(), "Pre-roll capture needs API 18, falling back to MediaRecorder");
+			captureMode = CAPTURE_MODE_RECORDER;
+			armRecorder();
+			return;
+		}
+		final Camera camera = this.camera;
+		cameraController.call(new Callable<PreRollRecorder>() {
+			@Override
+			public PreRollRecorder call() {
+				CaptureConfig config = captureConfig;
+				PreRollRecorder recorder = new PreRollRecorder(config.previewWidth, config.previewHeight,
+						config.frameRate, config.bitRate, PRE_ROLL_SECONDS, PRE_ROLL_MAX_BYTES);
+				recorder.start(camera);
+				// Read by the operations queued behind this one
+				preRoll = recorder;
+				return recorder;
+			}
+		}, new CameraController.Callback<PreRollRecorder>() {
+			@Override
+			public void onResult(final PreRollRecorder result) {
+				if (result != null && GridViewFragment.this.camera != camera) {
+					// The tile went away while the encoders were starting
+					cameraController.post(new Runnable() {
+						@Override
+						public void run() {
+							result.release();
+						}
+					});
+				}
+			}
+		});
+	}
 
-		// Use the same size for recording profile.
-		profile.videoFrameWidth = optimalSize.width;
-		profile.videoFrameHeight = optimalSize.height;
+	public boolean isAutoplay() {
+		return isAutoplay;
+	}
 
-		// likewise for the camera object itself.
-		parameters.setPreviewSize(profile.videoFrameWidth, profile.videoFrameHeight);
+	/**
+	 * Turns muted inline looping of the visible friend clips on or off.
+	 */
+	public void setAutoplay(boolean isAutoplay) {
+		this.isAutoplay = isAutoplay;
+		updateAutoplay();
+		if (gridView != null && isAutoplay && isResumed()) {
+			gridView.removeCallbacks(autoplayTick);
+			gridView.postDelayed(autoplayTick, AUTOPLAY_TICK_MS);
+		}
+	}
 
-		camera.setParameters(parameters);
+	public int getAutoplayBudget() {
+		return autoplayBudget;
+	}
+
+	/**
+	 * Sets how many friend clips may play inline at once. Visible tiles
+	 * beyond it take turns. One decoder of {@link #DECODER_BUDGET} always
+	 * stays free for a tapped clip.
+	 */
+	public void setAutoplayBudget(int autoplayBudget) {
+		this.autoplayBudget = Math.min(autoplayBudget, DECODER_BUDGET - 1);
+		if (autoplay != null) {
+			autoplay.setBudget(autoplayBudget, SystemClock.uptimeMillis());
+			updateDecoderBudget();
+		}
+	}
+
+	public boolean isSpeculativeStart() {
+		return isSpeculativeStart;
+	}
+
+	public void setSpeculativeStart(boolean isSpeculativeStart) {
+		this.isSpeculativeStart = isSpeculativeStart;
+	}
+
+	public boolean isPreWarm() {
+		return isPreWarm;
+	}
+
+	public void setPreWarm(boolean isPreWarm) {
+		this.isPreWarm = isPreWarm;
+		if (isPreWarm)
+			armRecorder();
+		else
+			disarmRecorder();
+	}
+
+	/**
+	 * Prepares a recorder on the camera thread so that the next long press
+	 * can start recording right away. Does nothing if pre-warming is off, the
+	 * camera is not open yet or a recorder is already armed.
+	 */
+	private void armRecorder() {
+		if (!isPreWarm || captureMode != CAPTURE_MODE_RECORDER || camera == null || isRecording)
+			return;
+		cameraController.post(new ArmRecorder(camera));
+	}
+
+	/**
+	 * Releases the armed recorder, if any, and deletes the empty file that was
+	 * allocated for it.
+	 */
+	private void disarmRecorder() {
+		final Camera camera = this.camera;
+		cameraController.post(new Runnable() {
+			@Override
+			public void run() {
+				if (armedRecorder != null) {
+					armedRecorder.reset();
+					armedRecorder.release();
+					armedRecorder = null;
+					if (camera != null)
+						camera.lock();
+				}
+				if (armedFile != null) {
+					armedFile.delete();
+					armedFile = null;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Builds and prepares a recorder for the camera. Runs on the camera thread.
+	 */
+	MediaRecorder prepareRecorder(Camera camera, File outputFile) {
+		// The preview already runs with the same capture config, so the
+		// camera needs no parameter change here.
+		CamcorderProfile profile = CameraController.getProfile(capabilities.cameraId, captureConfig);
 
 		// BEGIN_INCLUDE (configure_media_recorder)
-		mediaRecorder = new MediaRecorder();
+		MediaRecorder recorder = new MediaRecorder();
 
 		// Step 1: Unlock and set camera to MediaRecorder
 		camera.startPreview();
 		camera.unlock();
-		mediaRecorder.setCamera(camera);
+		recorder.setCamera(camera);
 
 		// Step 2: Set sources
-		mediaRecorder.setAudioSource(MediaRecorder.AudioSource.DEFAULT);
-		mediaRecorder.setVideoSource(MediaRecorder.VideoSource.CAMERA);
+		recorder.setAudioSource(MediaRecorder.AudioSource.DEFAULT);
+		recorder.setVideoSource(MediaRecorder.VideoSource.CAMERA);
 
 		// Step 3: Set a CamcorderProfile (requires API Level 8 or higher)
-		mediaRecorder.setProfile(profile);
+		recorder.setProfile(profile);
 
 		// Step 4: Set output file
-		mediaRecorder.setOutputFile(CameraHelper.getOutputMediaFile(CameraHelper.MEDIA_TYPE_VIDEO).toString());
+		recorder.setOutputFile(outputFile.toString());
 		// END_INCLUDE (configure_media_recorder)
 
-		mediaRecorder.setOnInfoListener(new OnInfoListener() {
+		recorder.setOnInfoListener(new OnInfoListener() {
 
 			@Override
 			public void onInfo(MediaRecorder mr, int what, int extra) {
 				Logger.d("what = " + what + ", extra = " + extra);
 			}
 		});
-		mediaRecorder.setOnErrorListener(new MediaRecorder.OnErrorListener() {
+		recorder.setOnErrorListener(new MediaRecorder.OnErrorListener() {
 			public void onError(MediaRecorder mr, int what, int extra) {
 				Logger.d("MediaRecorder error: " + what + " extra: " + extra);
 			}
@@ -284,47 +887,133 @@ public class GridViewFragment extends Fragment {
 
 		// Step 5: Prepare configured MediaRecorder
 		try {
-			mediaRecorder.prepare();
+			recorder.prepare();
 		} catch (IllegalStateException e) {
 			Logger.d("IllegalStateException preparing MediaRecorder: " + e.getMessage());
-			releaseMediaRecorder();
+			recorder.reset();
+			recorder.release();
+			camera.lock();
+			return null;
 		} catch (IOException e) {
 			Logger.d("IOException preparing MediaRecorder: " + e.getMessage());
-			releaseMediaRecorder();
+			recorder.reset();
+			recorder.release();
+			camera.lock();
+			return null;
 		}
+		return recorder;
 	}
 
-	private void releaseMediaRecorder() {
-		if (mediaRecorder != null) {
-			// clear recorder configuration
-			mediaRecorder.reset();
-			// release the recorder object
-			mediaRecorder.release();
-			mediaRecorder = null;
-			// Lock camera for later use i.e taking it back from MediaRecorder.
-			// MediaRecorder doesn't need it anymore and we will release it if
-			// the activity pauses.
-			camera.lock();
+	/**
+	 * Camera thread operation that starts recording, from the armed recorder
+	 * if there is one. Its result tells whether recording started.
+	 */
+	class StartRecording implements Callable<Boolean> {
+		private final Camera camera;
+
+		StartRecording(Camera camera) {
+			this.camera = camera;
+		}
+
+		@Override
+		public Boolean call() {
+			if (captureMode == CAPTURE_MODE_PRE_ROLL && preRoll != null) {
+				recordingFile = CameraHelper.getOutputMediaFile(CameraHelper.MEDIA_TYPE_VIDEO);
+				return recordingFile != null && preRoll.startRecording(recordingFile);
+			}
+			if (camera == null || mediaRecorder != null)
+				return false;
+
+			MediaRecorder recorder = armedRecorder;
+			recordingFile = armedFile;
+			armedRecorder = null;
+			armedFile = null;
+			LatencyMeter latency = armedStartLatency;
+			if (recorder == null) {
+				latency = coldStartLatency;
+				recordingFile = CameraHelper.getOutputMediaFile(CameraHelper.MEDIA_TYPE_VIDEO);
+				if (recordingFile == null)
+					return false;
+				recorder = prepareRecorder(camera, recordingFile);
+				if (recorder == null)
+					return false;
+			}
+			if (isSpeculative)
+				latency = speculativeStartLatency;
+			try {
+				recorder.start();
+			} catch (RuntimeException e) {
+				Logger.e(getTag(), "Cannot start recording", e);
+				recorder.reset();
+				recorder.release();
+				camera.lock();
+				recordingFile.delete();
+				recordingFile = null;
+				return false;
+			}
+			mediaRecorder = recorder;
+			latency.record(SystemClock.uptimeMillis() - touchTime);
+			return true;
 		}
 	}
 
 	/**
-	 * Asynchronous task for preparing the {@link android.media.MediaRecorder}
-	 * since it's a long blocking operation.
+	 * Camera thread operation that throws away a clip started on touch down.
+	 * It is queued behind the {@link StartRecording} it cancels.
 	 */
-	class MediaPrepareTask extends AsyncTask<Void, Void, Void> {
+	class DiscardRecording implements Callable<Void> {
+		private final Camera camera;
+
+		DiscardRecording(Camera camera) {
+			this.camera = camera;
+		}
 
 		@Override
-		protected Void doInBackground(Void... voids) {
-			prepareRecorder();
-			mediaRecorder.start();
-			isRecording = true;
+		public Void call() {
+			if (mediaRecorder != null) {
+				try {
+					mediaRecorder.stop();
+				} catch (RuntimeException e) {
+					// Expected for clips shorter than a frame, nothing to keep
+				}
+				// clear recorder configuration
+				mediaRecorder.reset();
+				// release the recorder object
+				mediaRecorder.release();
+				mediaRecorder = null;
+				// take camera access back from MediaRecorder
+				camera.lock();
+			}
+			if (recordingFile != null) {
+				recordingFile.delete();
+				recordingFile = null;
+			}
 			return null;
 		}
+	}
+
+	/**
+	 * Camera thread operation that prepares a recorder ahead of the long press
+	 * and leaves it armed.
+	 */
+	class ArmRecorder implements Runnable {
+		private final Camera camera;
+
+		ArmRecorder(Camera camera) {
+			this.camera = camera;
+		}
 
 		@Override
-		protected void onPostExecute(Void result) {
+		public void run() {
+			if (camera != GridViewFragment.this.camera || !isPreWarm || mediaRecorder != null
+					|| armedRecorder != null)
+				return;
+			File file = CameraHelper.getOutputMediaFile(CameraHelper.MEDIA_TYPE_VIDEO);
+			if (file == null)
+				return;
+			armedRecorder = prepareRecorder(camera, file);
+			if (armedRecorder != null)
+				armedFile = file;
 		}
 	}
-		
 }
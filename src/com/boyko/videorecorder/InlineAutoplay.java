@@ -0,0 +1,185 @@
+package com.boyko.videorecorder;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import android.content.Context;
+import android.graphics.Matrix;
+import android.graphics.SurfaceTexture;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.view.Surface;
+import android.view.TextureView;
+import android.view.View;
+import android.widget.ImageView;
+
+/**
+ * Plays friend clips muted and looping inside their tiles, for the tiles an
+ * {@link AutoplayScheduler} picks. The tile's thumbnail stays on top of the
+ * clip until its first frame draws, and comes back once it stops. Must be
+ * used on the main thread.
+ */
+public class InlineAutoplay implements AutoplayScheduler.Decoder {
+
+	private static final String TAG = "InlineAutoplay";
+
+	private final Context context;
+	private final CustomAdapterView grid;
+	private final HashMap<Long, Clip> clips = new HashMap<Long, Clip>();
+
+	public InlineAutoplay(Context context, CustomAdapterView grid) {
+		this.context = context.getApplicationContext();
+		this.grid = grid;
+	}
+
+	@Override
+	public boolean start(long tileId) {
+		final int index = findChild(tileId);
+		if (index < 0)
+			return false;
+		final View tile = grid.getChildAt(index);
+		final TextureView video = (TextureView) tile.findViewById(R.id.video_thumb);
+		final ImageView cover = (ImageView) tile.findViewById(R.id.img_thumb);
+		final Uri uri = ((FriendsAdapter) grid.getAdapter()).getItem(grid.getFirstPosition() + index).videoPath;
+		if (video == null || uri == null)
+			return false;
+		final Clip clip = new Clip(uri, video, cover);
+		clips.put(tileId, clip);
+		clip.open();
+		return true;
+	}
+
+	@Override
+	public void stop(long tileId) {
+		final Clip clip = clips.remove(tileId);
+		if (clip != null)
+			clip.close();
+	}
+
+	private int findChild(long tileId) {
+		for (int i = 0; i < grid.getChildCount(); i++) {
+			final View child = grid.getChildAt(i);
+			if (((CustomAdapterView.LayoutParams) child.getLayoutParams()).itemId == tileId)
+				return i;
+		}
+		return -1;
+	}
+
+	private class Clip implements TextureView.SurfaceTextureListener, MediaPlayer.OnPreparedListener,
+			MediaPlayer.OnErrorListener {
+		final Uri uri;
+		final TextureView video;
+		final ImageView cover;
+		MediaPlayer player;
+		Surface surface;
+		boolean awaitingFirstFrame;
+		boolean closed;
+
+		Clip(Uri uri, TextureView video, ImageView cover) {
+			this.uri = uri;
+			this.video = video;
+			this.cover = cover;
+		}
+
+		void open() {
+			video.setSurfaceTextureListener(this);
+			video.setVisibility(View.VISIBLE);
+			// Otherwise the surface appears with the next draw
+			if (video.isAvailable())
+				attach(video.getSurfaceTexture());
+		}
+
+		void attach(SurfaceTexture texture) {
+			surface = new Surface(texture);
+			player = new MediaPlayer();
+			player.setOnPreparedListener(this);
+			player.setOnErrorListener(this);
+			player.setSurface(surface);
+			player.setVolume(0, 0);
+			player.setLooping(true);
+			try {
+				player.setDataSource(context, uri);
+				awaitingFirstFrame = true;
+				player.prepareAsync();
+			} catch (IOException e) {
+				Logger.e(TAG, "Cannot open " + uri, e);
+				releasePlayer();
+			}
+		}
+
+		void close() {
+			closed = true;
+			releasePlayer();
+			video.setSurfaceTextureListener(null);
+			video.setVisibility(View.INVISIBLE);
+		}
+
+		void releasePlayer() {
+			awaitingFirstFrame = false;
+			if (cover != null)
+				cover.setVisibility(View.VISIBLE);
+			if (player != null) {
+				player.release();
+				player = null;
+			}
+			if (surface != null) {
+				surface.release();
+				surface = null;
+			}
+		}
+
+		@Override
+		public void onPrepared(MediaPlayer mp) {
+			if (closed)
+				return;
+			cropToFill(mp.getVideoWidth(), mp.getVideoHeight());
+			mp.start();
+		}
+
+		/**
+		 * Scales the clip to cover the tile, like the thumbnail's centerCrop.
+		 */
+		void cropToFill(int videoWidth, int videoHeight) {
+			final int width = video.getWidth();
+			final int height = video.getHeight();
+			if (videoWidth <= 0 || videoHeight <= 0 || width <= 0 || height <= 0)
+				return;
+			final float scale = Math.max((float) width / videoWidth, (float) height / videoHeight);
+			final Matrix matrix = new Matrix();
+			matrix.setScale(videoWidth * scale / width, videoHeight * scale / height, width / 2f, height / 2f);
+			video.setTransform(matrix);
+		}
+
+		@Override
+		public boolean onError(MediaPlayer mp, int what, int extra) {
+			Logger.e(TAG, "Cannot play " + uri + " (" + what + ", " + extra + ")");
+			releasePlayer();
+			return true;
+		}
+
+		@Override
+		public void onSurfaceTextureAvailable(SurfaceTexture texture, int width, int height) {
+			if (!closed && player == null)
+				attach(texture);
+		}
+
+		@Override
+		public void onSurfaceTextureSizeChanged(SurfaceTexture texture, int width, int height) {
+		}
+
+		@Override
+		public boolean onSurfaceTextureDestroyed(SurfaceTexture texture) {
+			releasePlayer();
+			return true;
+		}
+
+		@Override
+		public void onSurfaceTextureUpdated(SurfaceTexture texture) {
+			if (awaitingFirstFrame) {
+				awaitingFirstFrame = false;
+				if (cover != null)
+					cover.setVisibility(View.INVISIBLE);
+			}
+		}
+	}
+}
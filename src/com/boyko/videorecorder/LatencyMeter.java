@@ -0,0 +1,83 @@
+package com.boyko.videorecorder;
+
+import android.util.Log;
+
+/**
+ * Keeps running statistics (count, average, min, max) for a single latency
+ * measurement. A summary line goes to the {@link Logger} every
+ * {@link #LOG_EVERY} samples, or on demand with {@link #logSummary()}, so
+ * recording stays cheap on hot paths.
+ */
+public class LatencyMeter {
+
+	private static final String TAG = "LATENCY";
+
+	/** Samples between two summary lines */
+	public static final int LOG_EVERY = 32;
+
+	private final String name;
+
+	private int count;
+	private long total;
+	private long min = Long.MAX_VALUE;
+	private long max;
+
+	public LatencyMeter(String name) {
+		this.name = name;
+	}
+
+	public synchronized void record(long millis) {
+		count++;
+		total += millis;
+		if (millis < min)
+			min = millis;
+		if (millis > max)
+			max = millis;
+		if (count % LOG_EVERY == 0)
+			logSummary();
+	}
+
+	/**
+	 * Logs the statistics so far, if the LATENCY tag is enabled.
+	 */
+	public synchronized void logSummary() {
+		if (Logger.isLoggable(TAG, Log.DEBUG))
+			Logger.d(TAG, toString());
+	}
+
+	public synchronized int getCount() {
+		return count;
+	}
+
+	public synchronized long getAverage() {
+		return count == 0 ? 0 : total / count;
+	}
+
+	/**
+	 * @return the shortest sample, or 0 before the first one.
+	 */
+	public synchronized long getMin() {
+		return count == 0 ? 0 : min;
+	}
+
+	public synchronized long getMax() {
+		return max;
+	}
+
+	public synchronized void reset() {
+		count = 0;
+		total = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return name + ": n=" + count + ", avg=" + getAverage() + " ms, min=" + getMin() + " ms, max=" + max
+				+ " ms";
+	}
+}
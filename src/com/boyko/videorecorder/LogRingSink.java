@@ -0,0 +1,232 @@
+package com.boyko.videorecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import android.util.Log;
+
+/**
+ * File sink for {@link Logger} that keeps the last few hundred KB of log
+ * records in a fixed-size ring file. Callers only put the record on a
+ * lock-free queue; one background thread formats the records and copies them
+ * into a memory mapping of the file. The mapping lives in the page cache, so
+ * everything written is on disk even if the process crashes right after.
+ * <p>
+ * The file starts with a header holding {@link #MAGIC} and the offset where
+ * the next record goes; records are lines of text wrapping around the rest of
+ * the file, oldest right after that offset.
+ */
+public class LogRingSink {
+
+	private static final String TAG = "LogRingSink";
+
+	private static final int MAGIC = 0x4C4F4752; // "LOGR"
+	private static final int HEADER_SIZE = 8;
+	/** Records waiting beyond this are dropped rather than held in memory */
+	private static final int MAX_PENDING = 2048;
+	/** Longest wait of the drain thread for new records */
+	private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private static class Record {
+		final long time = System.currentTimeMillis();
+		final char level;
+		final String tag;
+		final String message;
+		final Throwable throwable;
+
+		Record(char level, String tag, String message, Throwable throwable) {
+			this.level = level;
+			this.tag = tag;
+			this.message = message;
+			this.throwable = throwable;
+		}
+	}
+
+	private final File file;
+	private final int size;
+	private final ConcurrentLinkedQueue<Record> queue = new ConcurrentLinkedQueue<Record>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicInteger dropped = new AtomicInteger();
+	private final Thread thread;
+	private volatile boolean isIdle;
+	/** Set when the file cannot be mapped; records are then ignored */
+	private volatile boolean isDisabled;
+
+	// Owned by the drain thread
+	private MappedByteBuffer buffer;
+	private int position;
+	private final StringBuilder line = new StringBuilder(256);
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+	private final Date date = new Date();
+
+	/**
+	 * @param size
+	 *            Size of the ring file in bytes, header included.
+	 */
+	public LogRingSink(File file, int size) {
+		this.file = file;
+		this.size = size;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drainLoop();
+			}
+		}, TAG);
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Queues a record. Never blocks; if the drain thread is far behind the
+	 * record is dropped and counted.
+	 */
+	public void append(char level, String tag, String message, Throwable throwable) {
+		if (isDisabled)
+			return;
+		if (pending.incrementAndGet() > MAX_PENDING) {
+			pending.decrementAndGet();
+			dropped.incrementAndGet();
+			return;
+		}
+		queue.offer(new Record(level, tag, message, throwable));
+		if (isIdle)
+			LockSupport.unpark(thread);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Reads the records kept in a ring file, oldest first. Does I/O, so must
+	 * not be called on the UI thread.
+	 */
+	public static String read(File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final byte[] data = new byte[(int) raf.length()];
+			raf.readFully(data);
+			if (data.length < HEADER_SIZE || readInt(data, 0) != MAGIC)
+				throw new IOException("Not a log ring: " + file);
+			final int position = readInt(data, 4);
+			if (position < HEADER_SIZE || position > data.length)
+				throw new IOException("Corrupt log ring: " + file);
+			final StringBuilder text = new StringBuilder(data.length);
+			// Unused space is zeroes
+			text.append(new String(data, position, data.length - position, "UTF-8"));
+			text.append(new String(data, HEADER_SIZE, position - HEADER_SIZE, "UTF-8"));
+			return text.toString().replace("\0", "");
+		} finally {
+			raf.close();
+		}
+	}
+
+	private void drainLoop() {
+		try {
+			open();
+		} catch (IOException e) {
+			Log.e(TAG, "Cannot map " + file + ", file logging is off", e);
+			isDisabled = true;
+			queue.clear();
+			return;
+		}
+		while (true) {
+			Record record = queue.poll();
+			if (record == null) {
+				isIdle = true;
+				// Re-check, a record may have come in before the flag was set
+				record = queue.poll();
+				if (record == null) {
+					LockSupport.parkNanos(this, IDLE_NANOS);
+					isIdle = false;
+					continue;
+				}
+				isIdle = false;
+			}
+			pending.decrementAndGet();
+			final int lost = dropped.getAndSet(0);
+			if (lost > 0)
+				write(format(new Record('W', TAG, lost + " records dropped", null)));
+			write(format(record));
+		}
+	}
+
+	private void open() throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if (raf.length() != size)
+				raf.setLength(size);
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} finally {
+			// The mapping stays valid after the file is closed
+			raf.close();
+		}
+		position = buffer.getInt(4);
+		if (buffer.getInt(0) != MAGIC || position < HEADER_SIZE || position > size) {
+			// New or foreign file, start from scratch
+			for (int i = 0; i < size; i++)
+				buffer.put(i, (byte) 0);
+			buffer.putInt(0, MAGIC);
+			position = HEADER_SIZE;
+			buffer.putInt(4, position);
+		}
+	}
+
+	private byte[] format(Record record) {
+		final StringBuilder line = this.line;
+		line.setLength(0);
+		date.setTime(record.time);
+		line.append(dateFormat.format(date)).append(' ').append(record.level).append(' ').append(record.tag)
+				.append('\t').append(record.message).append('\n');
+		if (record.throwable != null)
+			line.append(Log.getStackTraceString(record.throwable));
+		try {
+			return line.toString().getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Copies the bytes in at the write offset, wrapping around at the end,
+	 * then publishes the new offset.
+	 */
+	private void write(byte[] bytes) {
+		final int capacity = size - HEADER_SIZE;
+		int offset = 0;
+		int length = bytes.length;
+		if (length > capacity) {
+			// Keep the end of an oversized record
+			offset = length - capacity;
+			length = capacity;
+		}
+		while (length > 0) {
+			final int chunk = Math.min(length, size - position);
+			buffer.position(position);
+			buffer.put(bytes, offset, chunk);
+			offset += chunk;
+			length -= chunk;
+			position += chunk;
+			if (position == size)
+				position = HEADER_SIZE;
+		}
+		buffer.putInt(4, position);
+	}
+
+	private static int readInt(byte[] data, int offset) {
+		return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16 | (data[offset + 2] & 0xff) << 8
+				| data[offset + 3] & 0xff;
+	}
+}
@@ -1,96 +1,206 @@
-package com.boyko.videorecorder;
-
-import java.io.FileWriter;
-
-import android.util.Log;
-
-public class Logger {
-
-	private static final boolean IS_NEED_TO_SAVE = true;
-	private static FileWriter fileWriter;
-
-	public static void e(String string, String string2, Exception e) {
-		Log.e(string, string2, e);
-		if (IS_NEED_TO_SAVE)
-			printToFile(string + "\t" + string2, e);
-	}
-
-	public static void e(String string, String string2) {
-		Log.e(string, string2);
-		if (IS_NEED_TO_SAVE)
-			printToFile(string + "\t" + string2);
-	}
-
-	public static void e(String string) {
-		Log.e("EMPTY",string);
-		if (IS_NEED_TO_SAVE)
-			printToFile(string);
-	}
-
-	public static void w(String string, String string2) {
-		Log.w(string, string2);
-		if (IS_NEED_TO_SAVE)
-			printToFile(string + "\t" + string2);
-	}
-
-	public static void d(String string) {
-		d("LOG", string);
-		
-	}
-
-	public static void d(String tag2, String string) {
-		Log.d(tag2, string);
-		if (IS_NEED_TO_SAVE)
-			printToFile(tag2 + "\t" + string);
-	}
-
-	public static void i(String string, String string2) {
-		Log.i(string, string2);
-		if (IS_NEED_TO_SAVE)
-			printToFile(string + "\t" + string2);
-	}
-
-	private static void printToFile(CharSequence text) {
-		printToFile(text, null);
-	}
-	
-	private static void printToFile(CharSequence text, Exception exc) {
-
-//		File logFile = new File(Environment.getExternalStorageDirectory(),
-//				"rapido_log.txt");
-//		if (!logFile.exists()) {
-//			try {
-//				logFile.createNewFile();
-//			} catch (IOException e) {
-//				e.printStackTrace();
-//			}
-//		}
-//
-//		SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss",
-//				Locale.getDefault());
-//
-//		try {
-//			// BufferedWriter for performance, true to set append to file flag
-//			fileWriter = new FileWriter(logFile,
-//					true);
-//			BufferedWriter buf = new BufferedWriter(fileWriter);
-//			buf.append(df.format(new Date(System.currentTimeMillis())) + ": "
-//					+ text);
-//			buf.newLine();
-//			
-//			if(exc!=null){
-//				PrintWriter pw = new PrintWriter(fileWriter);
-//				exc.printStackTrace(pw);
-//			}
-//			buf.newLine();
-//			buf.close();
-//		} catch (IOException e) {
-//			e.printStackTrace();
-//		}
-	}
-	
-	public static FileWriter getFileWriter(){
-		return fileWriter;
-	}
-
-}
+package com.boyko.videorecorder;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Locale;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Logs to logcat and the ring file. Each tag has a level, see
+ * {@link #setLevel(String, int)}; records below it cost a map lookup and
+ * nothing else. The overloads taking a format only format the message when
+ * the record is logged, so hot paths should use them instead of building
+ * strings:
+ * 
+ * <pre>
+ * Logger.d(TAG, &quot;frame %d took %d ms&quot;, frame, millis);
+ * </pre>
+ * 
+ * Primitive arguments are still boxed before the call; where that matters,
+ * guard the call with {@link #DEBUG} or {@link #isLoggable(String, int)}.
+ * {@code if (Logger.DEBUG)} blocks are removed by the compiler in release
+ * builds. Release builds also run ProGuard (see project.properties), whose
+ * rules in proguard-project.txt strip the remaining debug calls.
+ * LoggerBenchmarkTest in the test project measures disabled log sites.
+ */
+public class Logger {
+
+	/** False in release builds; a constant, so guarded code is compiled away */
+	public static final boolean DEBUG = BuildConfig.DEBUG;
+
+	private static final boolean IS_NEED_TO_SAVE = true;
+	/** The last this many bytes of records are kept on disk */
+	private static final int LOG_FILE_SIZE = 256 * 1024;
+	private static volatile LogRingSink sink;
+
+	private static volatile int defaultLevel = DEBUG ? Log.VERBOSE : Log.INFO;
+	/** Replaced, never modified, so readers need no lock */
+	private static volatile HashMap<String, Integer> levels = new HashMap<String, Integer>();
+
+	/**
+	 * Starts saving records to a ring file in the app's files directory.
+	 * Records logged before are only sent to logcat. Returns at once, the
+	 * file is opened on the sink's thread.
+	 */
+	public static synchronized void init(Context context) {
+		if (sink == null && IS_NEED_TO_SAVE)
+			sink = new LogRingSink(new File(context.getApplicationContext().getFilesDir(), "log.ring"),
+					LOG_FILE_SIZE);
+	}
+
+	/**
+	 * Sets the lowest level logged for a tag, one of the {@link Log}
+	 * priorities, e.g. {@link Log#DEBUG}. Errors are always logged.
+	 */
+	public static synchronized void setLevel(String tag, int level) {
+		final HashMap<String, Integer> levels = new HashMap<String, Integer>(Logger.levels);
+		levels.put(tag, level);
+		Logger.levels = levels;
+	}
+
+	/**
+	 * Makes a tag use the default level again.
+	 */
+	public static synchronized void clearLevel(String tag) {
+		final HashMap<String, Integer> levels = new HashMap<String, Integer>(Logger.levels);
+		levels.remove(tag);
+		Logger.levels = levels;
+	}
+
+	/**
+	 * Sets the level of tags without one of their own. Verbose in debug
+	 * builds and info in release builds unless changed.
+	 */
+	public static void setDefaultLevel(int level) {
+		defaultLevel = level;
+	}
+
+	/**
+	 * @return true if records of the given level are logged for the tag.
+	 */
+	public static boolean isLoggable(String tag, int level) {
+		final Integer tagLevel = levels.get(tag);
+		return level >= (tagLevel != null ? tagLevel : defaultLevel);
+	}
+
+	public static void e(String string, String string2, Exception e) {
+		Log.e(string, string2, e);
+		if (IS_NEED_TO_SAVE)
+			printToFile('E', string, string2, e);
+	}
+
+	public static void e(String string, String string2) {
+		Log.e(string, string2);
+		if (IS_NEED_TO_SAVE)
+			printToFile('E', string, string2);
+	}
+
+	public static void e(String string) {
+		Log.e("EMPTY",string);
+		if (IS_NEED_TO_SAVE)
+			printToFile('E', "EMPTY", string);
+	}
+
+	public static void w(String string, String string2) {
+		if (!isLoggable(string, Log.WARN))
+			return;
+		Log.w(string, string2);
+		if (IS_NEED_TO_SAVE)
+			printToFile('W', string, string2);
+	}
+
+	public static void w(String tag, String format, Object arg) {
+		if (isLoggable(tag, Log.WARN))
+			w(tag, format(format, arg));
+	}
+
+	public static void w(String tag, String format, Object arg1, Object arg2) {
+		if (isLoggable(tag, Log.WARN))
+			w(tag, format(format, arg1, arg2));
+	}
+
+	public static void w(String tag, String format, Object... args) {
+		if (isLoggable(tag, Log.WARN))
+			w(tag, format(format, args));
+	}
+
+	public static void d(String string) {
+		d("LOG", string);
+		
+	}
+
+	public static void d(String tag2, String string) {
+		if (!isLoggable(tag2, Log.DEBUG))
+			return;
+		Log.d(tag2, string);
+		if (IS_NEED_TO_SAVE)
+			printToFile('D', tag2, string);
+	}
+
+	public static void d(String tag, String format, Object arg) {
+		if (isLoggable(tag, Log.DEBUG))
+			d(tag, format(format, arg));
+	}
+
+	public static void d(String tag, String format, Object arg1, Object arg2) {
+		if (isLoggable(tag, Log.DEBUG))
+			d(tag, format(format, arg1, arg2));
+	}
+
+	public static void d(String tag, String format, Object... args) {
+		if (isLoggable(tag, Log.DEBUG))
+			d(tag, format(format, args));
+	}
+
+	public static void i(String string, String string2) {
+		if (!isLoggable(string, Log.INFO))
+			return;
+		Log.i(string, string2);
+		if (IS_NEED_TO_SAVE)
+			printToFile('I', string, string2);
+	}
+
+	public static void i(String tag, String format, Object arg) {
+		if (isLoggable(tag, Log.INFO))
+			i(tag, format(format, arg));
+	}
+
+	public static void i(String tag, String format, Object arg1, Object arg2) {
+		if (isLoggable(tag, Log.INFO))
+			i(tag, format(format, arg1, arg2));
+	}
+
+	public static void i(String tag, String format, Object... args) {
+		if (isLoggable(tag, Log.INFO))
+			i(tag, format(format, args));
+	}
+
+	private static String format(String format, Object... args) {
+		return String.format(Locale.US, format, args);
+	}
+
+	private static void printToFile(char level, String tag, String text) {
+		printToFile(level, tag, text, null);
+	}
+
+	/**
+	 * Hands the record to the sink; formatting and I/O happen on its thread.
+	 */
+	private static void printToFile(char level, String tag, String text, Exception exc) {
+		final LogRingSink sink = Logger.sink;
+		if (sink != null)
+			sink.append(level, tag, text, exc);
+	}
+
+	/**
+	 * @return the ring file records are saved to, or null before
+	 *         {@link #init(Context)}. Read it with {@link LogRingSink#read}.
+	 */
+	public static File getLogFile() {
+		final LogRingSink sink = Logger.sink;
+		return sink != null ? sink.getFile() : null;
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,283 @@
+package com.boyko.videorecorder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.view.Surface;
+
+/**
+ * A few {@link MediaPlayer}s kept prepared for the clips most likely to be
+ * played next, so a tap only has to attach a surface and start. A finished or
+ * stopped player is rewound and kept for its clip instead of being released.
+ * <p>
+ * Each player holds a hardware decoder, so the pool is capped by the decoders
+ * the other players on screen leave, see {@link #setCapacity}. Opening and
+ * releasing players touches the file and the codecs, so it happens on a worker
+ * thread, in order per player. Must be used on the main thread.
+ */
+public class PlayerPool {
+
+	private static final String TAG = "PlayerPool";
+
+	/**
+	 * Playback events, called on the main thread.
+	 */
+	public interface Listener {
+		/**
+		 * The clip played to its end or could not be played.
+		 */
+		void onCompletion();
+	}
+
+	private class Entry implements MediaPlayer.OnPreparedListener, MediaPlayer.OnCompletionListener,
+			MediaPlayer.OnErrorListener {
+		final Uri uri;
+		// Created here so its callbacks come on the main thread
+		final MediaPlayer player = new MediaPlayer();
+		boolean prepared;
+		boolean startWhenPrepared;
+		Listener listener;
+
+		Entry(Uri uri) {
+			this.uri = uri;
+			player.setOnPreparedListener(this);
+			player.setOnCompletionListener(this);
+			player.setOnErrorListener(this);
+		}
+
+		@Override
+		public void onPrepared(MediaPlayer mp) {
+			prepared = true;
+			if (startWhenPrepared) {
+				startWhenPrepared = false;
+				player.start();
+			}
+		}
+
+		@Override
+		public void onCompletion(MediaPlayer mp) {
+			if (listener != null)
+				listener.onCompletion();
+		}
+
+		@Override
+		public boolean onError(MediaPlayer mp, int what, int extra) {
+			Logger.e(TAG, "Cannot play " + uri + " (" + what + ", " + extra + ")");
+			final Listener listener = this.listener;
+			remove(this);
+			if (listener != null)
+				listener.onCompletion();
+			return true;
+		}
+
+		/**
+		 * Runs on the worker.
+		 */
+		void open() {
+			try {
+				player.setDataSource(context, uri);
+				player.prepareAsync();
+			} catch (IOException e) {
+				Logger.e(TAG, "Cannot open " + uri, e);
+				fail();
+			} catch (IllegalStateException e) {
+				Logger.e(TAG, "Cannot prepare " + uri, e);
+				fail();
+			}
+		}
+
+		/**
+		 * Reports a player that could not be opened on the main thread, as
+		 * an error from the player itself would be.
+		 */
+		private void fail() {
+			mainHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					onError(player, MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
+				}
+			});
+		}
+	}
+
+	private final Context context;
+	private final HandlerThread thread;
+	private final Handler worker;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private int capacity;
+	/** Idle players by clip, least recently used first */
+	private final LinkedHashMap<Uri, Entry> idle = new LinkedHashMap<Uri, Entry>(8, 0.75f, true);
+	private Entry playing;
+
+	/**
+	 * @param capacity
+	 *            Players kept at once, the one playing included.
+	 */
+	public PlayerPool(Context context, int capacity) {
+		this.context = context.getApplicationContext();
+		this.capacity = Math.max(1, capacity);
+		thread = new HandlerThread(TAG);
+		thread.start();
+		worker = new Handler(thread.getLooper());
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Changes how many players the pool may keep, the one playing included,
+	 * releasing the least recently used idle ones if it shrinks. Never less
+	 * than one, so a tapped clip can always play.
+	 */
+	public void setCapacity(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		trim();
+	}
+
+	/**
+	 * Keeps players prepared for the given clips, most likely first, and
+	 * releases the ones for other clips. Clips beyond the capacity are
+	 * ignored.
+	 */
+	public void preload(List<Uri> uris) {
+		final int available = capacity - (playing != null ? 1 : 0);
+		final List<Uri> wanted = new ArrayList<Uri>(available);
+		for (Uri uri : uris) {
+			if (wanted.size() == available)
+				break;
+			if (uri != null && !wanted.contains(uri) && (playing == null || !uri.equals(playing.uri)))
+				wanted.add(uri);
+		}
+		final Iterator<Entry> it = idle.values().iterator();
+		while (it.hasNext()) {
+			final Entry entry = it.next();
+			if (!wanted.contains(entry.uri)) {
+				it.remove();
+				releaseLater(entry);
+			}
+		}
+		for (Uri uri : wanted) {
+			if (!idle.containsKey(uri))
+				idle.put(uri, prepare(uri));
+		}
+	}
+
+	/**
+	 * Plays the clip on the surface, stopping the one playing before. Starts
+	 * right away if a player was prepared for the clip.
+	 */
+	public void play(Uri uri, Surface surface, Listener listener) {
+		stop();
+		Entry entry = idle.remove(uri);
+		if (entry == null)
+			entry = prepare(uri);
+		playing = entry;
+		// Its decoder comes out of the idle players'
+		trim();
+		entry.listener = listener;
+		entry.player.setSurface(surface);
+		if (entry.prepared)
+			entry.player.start();
+		else
+			entry.startWhenPrepared = true;
+	}
+
+	/**
+	 * Stops the clip playing, if any, and keeps its player rewound for the
+	 * next time.
+	 */
+	public void stop() {
+		final Entry entry = playing;
+		if (entry == null)
+			return;
+		playing = null;
+		entry.listener = null;
+		entry.startWhenPrepared = false;
+		if (entry.prepared) {
+			entry.player.pause();
+			entry.player.seekTo(0);
+		}
+		entry.player.setSurface(null);
+		idle.put(entry.uri, entry);
+		trim();
+	}
+
+	/**
+	 * Releases every player and stops the worker once they are released. The
+	 * pool cannot be used afterwards.
+	 */
+	public void release() {
+		if (playing != null) {
+			releaseLater(playing);
+			playing = null;
+		}
+		for (Entry entry : idle.values())
+			releaseLater(entry);
+		idle.clear();
+		worker.post(new Runnable() {
+			@Override
+			public void run() {
+				thread.quit();
+			}
+		});
+	}
+
+	/**
+	 * @return a player that opens the clip on the worker; it reports through
+	 *         its listeners like any player.
+	 */
+	private Entry prepare(Uri uri) {
+		final Entry entry = new Entry(uri);
+		worker.post(new Runnable() {
+			@Override
+			public void run() {
+				entry.open();
+			}
+		});
+		return entry;
+	}
+
+	/**
+	 * Releases the player on the worker, after it was opened there.
+	 */
+	private void releaseLater(final Entry entry) {
+		entry.listener = null;
+		entry.startWhenPrepared = false;
+		worker.post(new Runnable() {
+			@Override
+			public void run() {
+				entry.player.release();
+			}
+		});
+	}
+
+	private void remove(Entry entry) {
+		if (playing == entry)
+			playing = null;
+		else if (idle.get(entry.uri) == entry)
+			idle.remove(entry.uri);
+		else
+			return;
+		releaseLater(entry);
+	}
+
+	private void trim() {
+		final int available = capacity - (playing != null ? 1 : 0);
+		final Iterator<Entry> it = idle.values().iterator();
+		while (idle.size() > available && it.hasNext()) {
+			final Entry entry = it.next();
+			it.remove();
+			releaseLater(entry);
+		}
+	}
+}
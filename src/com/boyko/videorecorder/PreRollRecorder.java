@@ -0,0 +1,604 @@
+package com.boyko.videorecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+import android.annotation.TargetApi;
+import android.hardware.Camera;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecInfo.CodecCapabilities;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.Bundle;
+
+/**
+ * Capture path built on {@link MediaCodec} and {@link MediaMuxer} that keeps
+ * encoding while the camera tile is visible. Until a recording is started the
+ * encoded audio and video go into two {@link EncodedRingBuffer}s holding the
+ * last few seconds; {@link #startRecording(File)} writes that pre-roll into
+ * the new file (from the oldest key frame on) and then continues live.
+ * <p>
+ * Files are written on a writer thread of their own. While recording the
+ * encoders still only copy their output into the rings, which then queue the
+ * live samples behind the pre-roll, so neither encoder waits for the disk.
+ * <p>
+ * Video comes from the camera's NV21 preview frames through a fixed set of
+ * callback buffers, audio from {@link AudioRecord}. Nothing is allocated per
+ * frame once {@link #start(Camera)} has returned.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class PreRollRecorder implements Camera.PreviewCallback, RecordingHud.AmplitudeSource {
+
+	private static final String TAG = "PreRollRecorder";
+
+	private static final String VIDEO_MIME = "video/avc";
+	private static final String AUDIO_MIME = "audio/mp4a-latm";
+	private static final int AUDIO_SAMPLE_RATE = 44100;
+	private static final int AUDIO_BIT_RATE = 64000;
+	/** Samples per AAC frame */
+	private static final int AUDIO_FRAME_SAMPLES = 1024;
+	private static final int I_FRAME_INTERVAL = 1;
+	private static final int PREVIEW_BUFFERS = 3;
+	private static final long TIMEOUT_US = 10000;
+	/** How long the writer sleeps when it has nothing to write */
+	private static final long WRITER_IDLE_NS = 10000000;
+
+	private final int width;
+	private final int height;
+	private final int frameRate;
+	private final int videoBitRate;
+	private final int frameSize;
+	private final EncodedRingBuffer videoRing;
+	private final EncodedRingBuffer audioRing;
+
+	private Camera camera;
+	private MediaCodec videoEncoder;
+	private MediaCodec audioEncoder;
+	private ByteBuffer[] videoInputs;
+	private AudioRecord audioRecord;
+	private int colorFormat;
+	/** Preview frame converted to the encoder's color format */
+	private byte[] frame;
+
+	private volatile boolean isRunning;
+	/** Peak of the audio read since the last {@link #getMaxAmplitude()} */
+	private volatile int maxAmplitude;
+	private Thread videoThread;
+	private Thread audioThread;
+	private volatile Thread writerThread;
+
+	private final Object recordingLock = new Object();
+	private MediaFormat videoFormat;
+	private MediaFormat audioFormat;
+	/** Recordings the writer has yet to finish, oldest first */
+	private final LinkedList<Recording> recordings = new LinkedList<Recording>();
+	/** The recording live samples go to, if any */
+	private volatile Recording live;
+	/** First video sequence number that belongs to no earlier recording */
+	private long videoStartSequence;
+
+	/**
+	 * @param width
+	 *            Width of the camera preview, which is also the video width.
+	 * @param height
+	 *            Height of the camera preview, which is also the video height.
+	 * @param preRollSeconds
+	 *            How much encoded media to keep before a recording starts.
+	 * @param maxBufferBytes
+	 *            Upper bound for the memory of both rings together.
+	 */
+	public PreRollRecorder(int width, int height, int frameRate, int videoBitRate, int preRollSeconds,
+			int maxBufferBytes) {
+		this.width = width;
+		this.height = height;
+		this.frameRate = frameRate;
+		this.videoBitRate = videoBitRate;
+		this.frameSize = width * height * 3 / 2;
+
+		// One spare second on top of the window so the oldest key frame is
+		// not evicted before the window is full.
+		final int seconds = preRollSeconds + I_FRAME_INTERVAL;
+		final long windowUs = seconds * 1000000L;
+		int audioBytes = Math.min(maxBufferBytes / 8, AUDIO_BIT_RATE / 8 * seconds * 2);
+		int videoBytes = Math.min(maxBufferBytes - audioBytes, videoBitRate / 8 * seconds * 2);
+		videoRing = new EncodedRingBuffer(videoBytes, frameRate * seconds * 2, windowUs);
+		audioRing = new EncodedRingBuffer(audioBytes, AUDIO_SAMPLE_RATE / AUDIO_FRAME_SAMPLES * seconds * 2,
+				windowUs);
+	}
+
+	/**
+	 * Starts the encoders and hooks into the camera's preview callbacks. The
+	 * camera must already be previewing at {@code width x height} in the
+	 * default NV21 format.
+	 */
+	public void start(Camera camera) {
+		this.camera = camera;
+
+		videoEncoder = MediaCodec.createEncoderByType(VIDEO_MIME);
+		colorFormat = selectColorFormat(videoEncoder.getCodecInfo());
+		MediaFormat format = MediaFormat.createVideoFormat(VIDEO_MIME, width, height);
+		format.setInteger(MediaFormat.KEY_COLOR_FORMAT, colorFormat);
+		format.setInteger(MediaFormat.KEY_BIT_RATE, videoBitRate);
+		format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+		format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
+		videoEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+		videoEncoder.start();
+		videoInputs = videoEncoder.getInputBuffers();
+
+		audioEncoder = MediaCodec.createEncoderByType(AUDIO_MIME);
+		format = MediaFormat.createAudioFormat(AUDIO_MIME, AUDIO_SAMPLE_RATE, 1);
+		format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+		format.setInteger(MediaFormat.KEY_BIT_RATE, AUDIO_BIT_RATE);
+		audioEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+		audioEncoder.start();
+
+		int minBuffer = AudioRecord.getMinBufferSize(AUDIO_SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO,
+				AudioFormat.ENCODING_PCM_16BIT);
+		audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, AUDIO_SAMPLE_RATE,
+				AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, minBuffer * 4);
+
+		frame = new byte[frameSize];
+		for (int i = 0; i < PREVIEW_BUFFERS; i++)
+			camera.addCallbackBuffer(new byte[frameSize]);
+
+		isRunning = true;
+		audioRecord.startRecording();
+		videoThread = new Thread(new DrainLoop(videoEncoder, true), "PreRollVideo");
+		audioThread = new Thread(new DrainLoop(audioEncoder, false), "PreRollAudio");
+		writerThread = new Thread(new Writer(), "PreRollWriter");
+		videoThread.start();
+		audioThread.start();
+		writerThread.start();
+		camera.setPreviewCallbackWithBuffer(this);
+	}
+
+	/**
+	 * Stops capturing, finishing any recording in progress, and releases the
+	 * encoders. The camera is left previewing.
+	 */
+	public void release() {
+		if (camera != null)
+			camera.setPreviewCallbackWithBuffer(null);
+		isRunning = false;
+		join(videoThread);
+		join(audioThread);
+		stopRecording();
+		LockSupport.unpark(writerThread);
+		join(writerThread);
+		writerThread = null;
+
+		if (audioRecord != null) {
+			audioRecord.stop();
+			audioRecord.release();
+			audioRecord = null;
+		}
+		if (videoEncoder != null) {
+			videoEncoder.stop();
+			videoEncoder.release();
+			videoEncoder = null;
+		}
+		if (audioEncoder != null) {
+			audioEncoder.stop();
+			audioEncoder.release();
+			audioEncoder = null;
+		}
+		videoRing.clear();
+		audioRing.clear();
+		camera = null;
+	}
+
+	private static void join(Thread thread) {
+		if (thread == null)
+			return;
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Starts a new file with the buffered pre-roll and keeps appending live
+	 * samples until {@link #stopRecording()}. Only the position the file
+	 * starts at is taken here; the writer thread creates the file and writes
+	 * the samples.
+	 *
+	 * @return false if a recording is already running or the encoders have
+	 *         not produced their output formats yet.
+	 */
+	public boolean startRecording(File file) {
+		final boolean isWaitingForSyncFrame;
+		synchronized (recordingLock) {
+			if (live != null || videoFormat == null || audioFormat == null)
+				return false;
+			// Nothing may leave the rings before the writer has taken it
+			videoRing.setHolding(true);
+			audioRing.setHolding(true);
+
+			final Recording recording = new Recording(file, videoFormat, audioFormat);
+			final long firstVideoUs = videoRing.getFirstSyncFrameTimeUs(videoStartSequence);
+			isWaitingForSyncFrame = firstVideoUs == -1;
+			recording.startUs = isWaitingForSyncFrame ? 0 : firstVideoUs;
+			live = recording;
+			recordings.add(recording);
+		}
+		LockSupport.unpark(writerThread);
+		if (isWaitingForSyncFrame)
+			requestSyncFrame();
+		Logger.d(TAG, "recording started with " + (videoRing.getBufferedDurationUs() / 1000) + " ms of pre-roll");
+		return true;
+	}
+
+	/**
+	 * Finishes the current recording on the calling thread.
+	 *
+	 * @return the recorded file, or null if nothing was being recorded or the
+	 *         file could not be finished.
+	 */
+	public File stopRecording() {
+		RecordingFinalizer.Job job = detachRecording();
+		return job == null ? null : job.run();
+	}
+
+	/**
+	 * Ends the current recording without waiting for the file to be closed.
+	 * Samples encoded from now on belong to the next pre-roll, so the next
+	 * recording can start before the returned job has run.
+	 *
+	 * @return a job that waits for the writer to catch up and closes the file,
+	 *         or null if nothing was being recorded.
+	 */
+	public RecordingFinalizer.Job detachRecording() {
+		final Recording recording;
+		synchronized (recordingLock) {
+			recording = live;
+			if (recording == null)
+				return null;
+			live = null;
+			recording.videoEndSequence = videoRing.getNextSequence();
+			recording.audioEndSequence = audioRing.getNextSequence();
+			recording.isStopped = true;
+			videoStartSequence = recording.videoEndSequence;
+		}
+		LockSupport.unpark(writerThread);
+		return new RecordingFinalizer.Job() {
+			@Override
+			public File run() {
+				recording.awaitWritten();
+				final MediaMuxer muxer = recording.muxer;
+				if (muxer == null)
+					return null;
+				File result = recording.file;
+				try {
+					muxer.stop();
+				} catch (IllegalStateException e) {
+					// Thrown when not a single sample was written
+					Logger.e(TAG, "Cannot finish " + recording.file, e);
+					recording.file.delete();
+					result = null;
+				}
+				muxer.release();
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * @return the peak amplitude of the microphone input since the last
+	 *         call, like {@link MediaRecorder#getMaxAmplitude()}.
+	 */
+	@Override
+	public int getMaxAmplitude() {
+		final int amplitude = maxAmplitude;
+		maxAmplitude = 0;
+		return amplitude;
+	}
+
+	public boolean isRecording() {
+		synchronized (recordingLock) {
+			return live != null;
+		}
+	}
+
+	@Override
+	public void onPreviewFrame(byte[] data, Camera camera) {
+		try {
+			if (!isRunning)
+				return;
+			int index = videoEncoder.dequeueInputBuffer(0);
+			if (index < 0)
+				return; // encoder is behind, drop the frame
+			convertFrame(data, frame);
+			ByteBuffer input = videoInputs[index];
+			input.clear();
+			input.put(frame, 0, frameSize);
+			videoEncoder.queueInputBuffer(index, 0, frameSize, System.nanoTime() / 1000, 0);
+		} catch (IllegalStateException e) {
+			// Encoder is being released
+		} finally {
+			camera.addCallbackBuffer(data);
+		}
+	}
+
+	/**
+	 * Converts an NV21 frame to NV12 or I420, whichever the encoder takes.
+	 */
+	private void convertFrame(byte[] nv21, byte[] out) {
+		final int lumaSize = width * height;
+		System.arraycopy(nv21, 0, out, 0, lumaSize);
+		if (colorFormat == CodecCapabilities.COLOR_FormatYUV420SemiPlanar) {
+			for (int i = lumaSize; i < frameSize; i += 2) {
+				out[i] = nv21[i + 1];
+				out[i + 1] = nv21[i];
+			}
+		} else {
+			final int quarter = lumaSize / 4;
+			for (int i = 0; i < quarter; i++) {
+				out[lumaSize + i] = nv21[lumaSize + 2 * i + 1];
+				out[lumaSize + quarter + i] = nv21[lumaSize + 2 * i];
+			}
+		}
+	}
+
+	private static int selectColorFormat(MediaCodecInfo info) {
+		int[] formats = info.getCapabilitiesForType(VIDEO_MIME).colorFormats;
+		for (int format : formats) {
+			if (format == CodecCapabilities.COLOR_FormatYUV420SemiPlanar)
+				return format;
+		}
+		return CodecCapabilities.COLOR_FormatYUV420Planar;
+	}
+
+	private void requestSyncFrame() {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+			Bundle params = new Bundle();
+			params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+			videoEncoder.setParameters(params);
+		}
+	}
+
+	/**
+	 * Copies an encoded sample into its ring, from which the writer takes it
+	 * while recording.
+	 */
+	private void writeSample(boolean isVideo, ByteBuffer buffer, MediaCodec.BufferInfo info) {
+		(isVideo ? videoRing : audioRing).put(buffer, info.presentationTimeUs, info.flags);
+		if (live != null)
+			LockSupport.unpark(writerThread);
+	}
+
+	private void setOutputFormat(boolean isVideo, MediaFormat format) {
+		synchronized (recordingLock) {
+			if (isVideo)
+				videoFormat = format;
+			else
+				audioFormat = format;
+		}
+	}
+
+	/**
+	 * One output file. The writer owns the muxer until {@link #done} opens.
+	 */
+	private static class Recording {
+		final File file;
+		final MediaFormat videoFormat;
+		final MediaFormat audioFormat;
+		/** Samples presented before this are not written */
+		long startUs;
+		/** Ring sequence numbers the recording ends at, once stopped */
+		long videoEndSequence = Long.MAX_VALUE;
+		long audioEndSequence = Long.MAX_VALUE;
+		volatile boolean isStopped;
+
+		MediaMuxer muxer;
+		int videoTrack;
+		int audioTrack;
+		final CountDownLatch done = new CountDownLatch(1);
+
+		Recording(File file, MediaFormat videoFormat, MediaFormat audioFormat) {
+			this.file = file;
+			this.videoFormat = videoFormat;
+			this.audioFormat = audioFormat;
+		}
+
+		void awaitWritten() {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					done.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes the recordings in turn: the pre-roll and then the live samples,
+	 * both taken from the rings in presentation order.
+	 */
+	private class Writer implements Runnable, EncodedRingBuffer.SampleSink {
+		private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+		/** Copy of the polled sample, written to the muxer outside the ring's lock */
+		private byte[] sample = new byte[0];
+		private ByteBuffer sampleView = ByteBuffer.wrap(sample);
+
+		@Override
+		public void run() {
+			while (true) {
+				final Recording recording;
+				synchronized (recordingLock) {
+					recording = recordings.peek();
+					if (recording == null && !isRunning)
+						return;
+				}
+				if (recording == null) {
+					LockSupport.parkNanos(this, WRITER_IDLE_NS);
+					continue;
+				}
+				write(recording);
+				synchronized (recordingLock) {
+					recordings.remove();
+					if (recordings.isEmpty()) {
+						videoRing.setHolding(false);
+						audioRing.setHolding(false);
+					}
+				}
+				recording.done.countDown();
+			}
+		}
+
+		private void write(Recording recording) {
+			open(recording);
+			boolean isWaitingForSyncFrame = true;
+			while (true) {
+				final boolean isStopped = recording.isStopped;
+				final long videoEnd = recording.videoEndSequence;
+				final long audioEnd = recording.audioEndSequence;
+				final long videoUs = videoRing.peekTimeUs(videoEnd);
+				final long audioUs = audioRing.peekTimeUs(audioEnd);
+				if (videoUs == -1 && audioUs == -1) {
+					if (isStopped)
+						return;
+					LockSupport.parkNanos(this, WRITER_IDLE_NS);
+					continue;
+				}
+				final boolean isVideo = audioUs == -1 || (videoUs != -1 && videoUs <= audioUs);
+				if (!(isVideo ? videoRing : audioRing).poll(this, isVideo ? videoEnd : audioEnd))
+					continue;
+				if (info.presentationTimeUs < recording.startUs || recording.muxer == null)
+					continue;
+				if (isVideo && isWaitingForSyncFrame) {
+					if ((info.flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) == 0)
+						continue;
+					isWaitingForSyncFrame = false;
+				}
+				recording.muxer.writeSampleData(isVideo ? recording.videoTrack : recording.audioTrack,
+						sampleView, info);
+			}
+		}
+
+		/**
+		 * Creates the file. On failure the recording's samples are still
+		 * taken from the rings, just not written.
+		 */
+		private void open(Recording recording) {
+			try {
+				final MediaMuxer muxer = new MediaMuxer(recording.file.getPath(),
+						MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+				recording.videoTrack = muxer.addTrack(recording.videoFormat);
+				recording.audioTrack = muxer.addTrack(recording.audioFormat);
+				muxer.start();
+				recording.muxer = muxer;
+			} catch (IOException e) {
+				Logger.e(TAG, "Cannot create muxer", e);
+			}
+		}
+
+		@Override
+		public void writeSample(ByteBuffer buffer, int offset, int size, long presentationTimeUs, int flags) {
+			if (size > sample.length) {
+				sample = new byte[size];
+				sampleView = ByteBuffer.wrap(sample);
+			}
+			buffer.get(sample, 0, size);
+			sampleView.limit(size);
+			sampleView.position(0);
+			info.set(0, size, presentationTimeUs, flags);
+		}
+	}
+
+	/**
+	 * Pulls encoded output from one encoder. The audio loop also reads the
+	 * microphone and feeds the audio encoder.
+	 */
+	private class DrainLoop implements Runnable {
+		private final MediaCodec encoder;
+		private final boolean isVideo;
+		private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+		private ByteBuffer[] outputs;
+		private ByteBuffer[] inputs;
+
+		DrainLoop(MediaCodec encoder, boolean isVideo) {
+			this.encoder = encoder;
+			this.isVideo = isVideo;
+		}
+
+		@Override
+		public void run() {
+			outputs = encoder.getOutputBuffers();
+			if (!isVideo)
+				inputs = encoder.getInputBuffers();
+			while (isRunning) {
+				if (!isVideo)
+					feedAudio();
+				drain(isVideo ? TIMEOUT_US : 0);
+			}
+		}
+
+		private void feedAudio() {
+			int index = encoder.dequeueInputBuffer(TIMEOUT_US);
+			if (index < 0)
+				return;
+			ByteBuffer input = inputs[index];
+			input.clear();
+			int read = audioRecord.read(input, input.capacity());
+			if (read < 0)
+				read = 0;
+			trackPeak(input, read);
+			// Stamp the first sample of the chunk, on the same clock as video
+			long ptsUs = System.nanoTime() / 1000 - (read / 2) * 1000000L / AUDIO_SAMPLE_RATE;
+			encoder.queueInputBuffer(index, 0, read, ptsUs, 0);
+		}
+
+		/**
+		 * Keeps the loudest 16 bit sample for {@link #getMaxAmplitude()}.
+		 */
+		private void trackPeak(ByteBuffer pcm, int size) {
+			pcm.order(ByteOrder.nativeOrder());
+			int peak = maxAmplitude;
+			for (int i = 0; i + 1 < size; i += 2) {
+				final int sample = Math.abs(pcm.getShort(i));
+				if (sample > peak)
+					peak = sample;
+			}
+			maxAmplitude = Math.min(peak, Short.MAX_VALUE);
+		}
+
+		private void drain(long timeoutUs) {
+			while (true) {
+				int index = encoder.dequeueOutputBuffer(info, timeoutUs);
+				if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+					return;
+				} else if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+					outputs = encoder.getOutputBuffers();
+				} else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+					setOutputFormat(isVideo, encoder.getOutputFormat());
+				} else if (index >= 0) {
+					// Codec config is carried by the output format
+					if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size > 0) {
+						ByteBuffer output = outputs[index];
+						output.limit(info.offset + info.size);
+						output.position(info.offset);
+						writeSample(isVideo, output, info);
+					}
+					encoder.releaseOutputBuffer(index, false);
+				}
+				timeoutUs = 0;
+			}
+		}
+	}
+}
@@ -1,17 +1,12 @@
 package com.boyko.videorecorder;
 
 import java.io.IOException;
-import java.util.List;
+import java.util.concurrent.Callable;
 
 import android.content.Context;
 import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Paint.Align;
-import android.graphics.Path;
-import android.graphics.Typeface;
 import android.hardware.Camera;
 import android.hardware.Camera.Parameters;
-import android.hardware.Camera.Size;
 import android.media.CamcorderProfile;
 import android.util.Log;
 import android.view.SurfaceHolder;
@@ -24,22 +19,34 @@ import android.view.ViewGroup;
  * centered preview of the Camera to the surface. We need to center the
  * SurfaceView because not all devices have cameras that support preview
  * sizes at the same aspect ratio as the device's display.
+ * <p>
+ * Every call on the camera is made on the {@link CameraController}'s thread.
  */
 public class Preview extends ViewGroup implements SurfaceHolder.Callback{
 	private final String TAG = "Preview";
 
 	private SurfaceView surfaceView;
 	private SurfaceHolder holder;
-	private Size previewSize;
-	private List<Size> supportedPreviewSizes;
+	/** Read by the camera thread when recording starts */
+	private volatile CaptureConfig captureConfig;
+	private CameraCapabilities capabilities;
 	private Camera camera;
+	private final CameraController cameraController;
+	private final CapabilityCache capabilityCache;
+
+	// Owned by the camera thread
+	private Parameters parameters;
+	private int exposure;
 
 	private boolean isRecording;
 
-	private Paint paint = new Paint();
+	private final RecordingOverlay overlay;
 
-	public Preview(Context context) {
+	public Preview(Context context, CameraController cameraController) {
 		super(context);
+		this.cameraController = cameraController;
+		capabilityCache = CapabilityCache.getInstance(context);
+		overlay = new RecordingOverlay(context);
 
 		surfaceView = new SurfaceView(context);
 		addView(surfaceView);
@@ -52,30 +59,71 @@ public class Preview extends ViewGroup implements SurfaceHolder.Callback{
 	}
 
 	public void setExposure(int new_exposure) {
-		Parameters parameters = this.camera.getParameters();
-		parameters.setExposureCompensation(new_exposure);
+		final Camera camera = this.camera;
+		final CameraCapabilities capabilities = this.capabilities;
+		if (camera == null || capabilities == null)
+			return;
+		final int clamped = capabilities.clampExposure(new_exposure);
+		cameraController.post(new Runnable() {
+			@Override
+			public void run() {
+				// Light sensor events are frequent, only go to the HAL on a
+				// change
+				if (parameters == null || clamped == exposure)
+					return;
+				exposure = clamped;
+				parameters.setExposureCompensation(clamped);
+				camera.setParameters(parameters);
+			}
+		});
 	}
 
-	public void setCamera(Camera camera) {
+	/**
+	 * @param cameraId
+	 *            Id the camera was opened with, used to look up its
+	 *            {@link CameraCapabilities}.
+	 */
+	public void setCamera(final Camera camera, final int cameraId) {
 		this.camera = camera;
+		capabilities = null;
 		if (this.camera != null) {
-			supportedPreviewSizes = this.camera.getParameters().getSupportedPreviewSizes();
-			requestLayout();
+			cameraController.call(new Callable<CameraCapabilities>() {
+				@Override
+				public CameraCapabilities call() {
+					parameters = null;
+					return capabilityCache.obtain(cameraId, camera);
+				}
+			}, new CameraController.Callback<CameraCapabilities>() {
+				@Override
+				public void onResult(CameraCapabilities result) {
+					if (Preview.this.camera != camera)
+						return;
+					capabilities = result;
+					requestLayout();
+				}
+			});
 		}
 	}
 
-	public void switchCamera(Camera camera) {
-		setCamera(camera);
-		try {
-			camera.setPreviewDisplay(holder);
-		} catch (IOException exception) {
-			Log.e(TAG, "IOException caused by setPreviewDisplay()", exception);
-		}
-		Camera.Parameters parameters = camera.getParameters();
-		parameters.setPreviewSize(previewSize.width, previewSize.height);
+	public void switchCamera(final Camera camera, int cameraId) {
+		setCamera(camera, cameraId);
+		final CaptureConfig config = captureConfig;
+		cameraController.post(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					camera.setPreviewDisplay(holder);
+				} catch (IOException exception) {
+					Log.e(TAG, "IOException caused by setPreviewDisplay()", exception);
+				}
+				if (config == null)
+					return;
+				parameters = camera.getParameters();
+				CameraController.configure(parameters, config);
+				camera.setParameters(parameters);
+			}
+		});
 		requestLayout();
-
-		camera.setParameters(parameters);
 	}
 
 	@Override
@@ -87,11 +135,11 @@ public class Preview extends ViewGroup implements SurfaceHolder.Callback{
 		final int height = resolveSize(getSuggestedMinimumHeight(), heightMeasureSpec);
 		setMeasuredDimension(width, height);
 
-		if (supportedPreviewSizes != null) {
-			previewSize = getOptimalPreviewSize(supportedPreviewSizes, width, height);
+		if (capabilities != null) {
+			captureConfig = CaptureConfigSolver.solve(capabilities, width, height, CamcorderProfile.QUALITY_HIGH);
 		}
 		
-		Log.d(TAG, "onMeasure");
+		Logger.d(TAG, "onMeasure");
 	}
 
 	@Override
@@ -104,9 +152,10 @@ public class Preview extends ViewGroup implements SurfaceHolder.Callback{
 
 			int previewWidth = width;
 			int previewHeight = height;
-			if (previewSize != null) {
-				previewWidth = previewSize.height;
-				previewHeight = previewSize.width;
+			final CaptureConfig config = captureConfig;
+			if (config != null) {
+				previewWidth = config.previewHeight;
+				previewHeight = config.previewWidth;
 			}
 
 			// Center the child SurfaceView within the parent.
@@ -119,170 +168,111 @@ public class Preview extends ViewGroup implements SurfaceHolder.Callback{
 			}
 		}
 		
-		Log.d(TAG, "onLayout");
+		Logger.d(TAG, "onLayout");
 	}
 
 	public void surfaceCreated(SurfaceHolder holder) {
-		Log.d(TAG, "surfaceCreated " + holder + ", " + camera);
+		Logger.d(TAG, "surfaceCreated %s, %s", holder, camera);
 		// The Surface has been created, acquire the camera and tell it
 		// where
 		// to draw.
-		try {
-			if (this.camera != null) {
-				this.camera.setPreviewDisplay(holder);
-				this.camera.setDisplayOrientation(90);
-			}
-		} catch (IOException exception) {
-			Log.e(TAG, "IOException caused by setPreviewDisplay()", exception);
+		final Camera camera = this.camera;
+		if (camera != null) {
+			cameraController.post(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						camera.setPreviewDisplay(Preview.this.holder);
+						camera.setDisplayOrientation(90);
+					} catch (IOException exception) {
+						Log.e(TAG, "IOException caused by setPreviewDisplay()", exception);
+					}
+				}
+			});
 		}
 
 		setWillNotDraw(false);
 	}
 
 	public void surfaceDestroyed(SurfaceHolder holder) {
-		Log.d(TAG, "surfaceDestroyed " + holder + ", " + camera);
+		Logger.d(TAG, "surfaceDestroyed %s, %s", holder, camera);
 		// Surface will be destroyed when we return, so stop the preview.
 		if (this.camera != null) {
 			//this.camera.stopPreview();
 		}
 	}
 
-	private Size getOptimalPreviewSize(List<Size> sizes, int w, int h) {
-		final double ASPECT_TOLERANCE = 0.1;
-		double targetRatio = (double) w / h;
-		if (sizes == null)
-			return null;
-
-		Size optimalSize = null;
-		double minDiff = Double.MAX_VALUE;
-
-		int targetHeight = h;
-
-		// Try to find an size match aspect ratio and size
-		for (Size size : sizes) {
-			double ratio = (double) size.width / size.height;
-			if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE)
-				continue;
-			if (Math.abs(size.height - targetHeight) < minDiff) {
-				optimalSize = size;
-				minDiff = Math.abs(size.height - targetHeight);
-			}
-		}
-
-		// Cannot find the one match the aspect ratio, ignore the
-		// requirement
-		if (optimalSize == null) {
-			minDiff = Double.MAX_VALUE;
-			for (Size size : sizes) {
-				if (Math.abs(size.height - targetHeight) < minDiff) {
-					optimalSize = size;
-					minDiff = Math.abs(size.height - targetHeight);
-				}
-			}
-		}
-		return optimalSize;
-	}
-
 	public void surfaceChanged(SurfaceHolder holder, int format, int w, int h) {
-		Log.d(TAG, "surfaceChanged " + holder + ", " + camera);
+		Logger.d(TAG, "surfaceChanged %s, %s", holder, camera);
 		// Now that the size is known, set up the camera parameters and
 		// begin
 		// the preview.
-		Camera.Parameters parameters = this.camera.getParameters();
-		parameters.setPreviewSize(previewSize.width, previewSize.height);
-		parameters.setRecordingHint(true);
-
-		CamcorderProfile profile = CamcorderProfile.get(CamcorderProfile.QUALITY_HIGH);
-		List<int[]> fps_ranges = parameters.getSupportedPreviewFpsRange();
-		int selected_min_fps = -1, selected_max_fps = -1, selected_diff = -1;
-		for (int[] fps_range : fps_ranges) {
-			int min_fps = fps_range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
-			int max_fps = fps_range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
-			if (min_fps <= profile.videoFrameRate * 1000 && max_fps >= profile.videoFrameRate * 1000) {
-				int diff = max_fps - min_fps;
-				if (selected_diff == -1 || diff < selected_diff) {
-					selected_min_fps = min_fps;
-					selected_max_fps = max_fps;
-					selected_diff = diff;
-				}
+		final Camera camera = this.camera;
+		final CameraCapabilities capabilities = this.capabilities;
+		final CaptureConfig config = captureConfig;
+		if (camera == null || capabilities == null || config == null)
+			return;
+		cameraController.post(new Runnable() {
+			@Override
+			public void run() {
+				// The only parameter query of the session, everything else
+				// comes from the capabilities
+				if (parameters == null)
+					parameters = camera.getParameters();
+				CameraController.configure(parameters, config);
+
+				exposure = capabilities.maxExposure;
+				parameters.setExposureCompensation(exposure);
+
+				// parameters.setAutoExposureLock(true);
+				// parameters.setAutoWhiteBalanceLock(true);
+
+
+				camera.setParameters(parameters);
+
+				camera.startPreview();
 			}
-		}
-		if (selected_min_fps == -1) {
-			selected_diff = -1;
-			int selected_dist = -1;
-			for (int[] fps_range : fps_ranges) {
-				int min_fps = fps_range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
-				int max_fps = fps_range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
-				int diff = max_fps - min_fps;
-				int dist = -1;
-				if (max_fps < profile.videoFrameRate * 1000)
-					dist = profile.videoFrameRate * 1000 - max_fps;
-				else
-					dist = min_fps - profile.videoFrameRate * 1000;
-				if (selected_dist == -1 || dist < selected_dist || (dist == selected_dist && diff < selected_diff)) {
-					selected_min_fps = min_fps;
-					selected_max_fps = max_fps;
-					selected_dist = dist;
-					selected_diff = diff;
-				}
-			}
-			parameters.setPreviewFpsRange(selected_min_fps, selected_max_fps);
-
-		} else {
-			parameters.setPreviewFpsRange(selected_min_fps, selected_max_fps);
-		}
-
-		int maxExposureCompensation = parameters.getMaxExposureCompensation();
-		parameters.setExposureCompensation(maxExposureCompensation);
-
-		// parameters.setAutoExposureLock(true);
-		// parameters.setAutoWhiteBalanceLock(true);
-
-
-		this.camera.setParameters(parameters);
-
-		this.camera.startPreview();
+		});
 
 		requestLayout();
 		invalidate();
 	}
 
+	/**
+	 * @return the configuration the preview runs with, which recordings must
+	 *         reuse; null until the preview is measured.
+	 */
+	public CaptureConfig getCaptureConfig() {
+		return captureConfig;
+	}
+
 	public SurfaceHolder getHolder() {
 		return holder;
 	}
 
 	public void setRecording(boolean isRecording) {
+		if (this.isRecording == isRecording)
+			return;
 		this.isRecording = isRecording;
 		invalidate();
 	}
 	
 	@Override
-	public void draw(Canvas canvas) {
-		super.draw(canvas);
-		if(isRecording){
-			drawIndicator(canvas);
-		}
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		overlay.setSize(w, h);
 	}
-	
-	private void drawIndicator(Canvas c){
-		Path borderPath = new Path();
-		borderPath.lineTo(c.getWidth(), 0);
-		borderPath.lineTo(c.getWidth(), c.getHeight());
-		borderPath.lineTo(0, c.getHeight());
-		borderPath.lineTo(0, 0);
-		Paint paint = new Paint();
-		paint.setColor(0xffCC171E);
-		paint.setStrokeWidth(Convenience.dpToPx(getContext(), 2));
-		paint.setStyle(Paint.Style.STROKE);
-		c.drawPath(borderPath, paint);
-		paint.setColor(0xffCC171E);
-		paint.setStyle(Paint.Style.FILL);
-		c.drawCircle(Convenience.dpToPx(getContext(), 13), Convenience.dpToPx(getContext(), 13), 
-				Convenience.dpToPx(getContext(), 4), paint);
-		paint.setAntiAlias(true);
-		paint.setTextSize(Convenience.dpToPx(getContext(), 13)); //some size
-		paint.setTypeface(Typeface.defaultFromStyle(Typeface.BOLD));
-		paint.setTextAlign(Align.CENTER);
-		c.drawText("Recording...", c.getWidth()/2, c.getHeight() - 13, paint);
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		overlay.release();
+	}
+
+	@Override
+	protected void dispatchDraw(Canvas canvas) {
+		super.dispatchDraw(canvas);
+		if (isRecording)
+			overlay.draw(canvas);
 	}
 }
\ No newline at end of file
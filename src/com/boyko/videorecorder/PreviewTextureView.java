@@ -2,12 +2,8 @@ package com.boyko.videorecorder;
 
 import android.content.Context;
 import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Paint.Align;
-import android.graphics.Path;
-import android.graphics.Typeface;
+import android.graphics.Rect;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.TextureView;
 import android.view.TextureView.SurfaceTextureListener;
@@ -17,6 +13,8 @@ public class PreviewTextureView extends FrameLayout {
 
 	private TextureView textureView;
 	private boolean isRecording;
+	private RecordingOverlay overlay;
+	private RecordingHud hud;
 
 	public PreviewTextureView(Context context, AttributeSet attrs, int defStyle) {
 		super(context, attrs, defStyle);
@@ -36,6 +34,7 @@ public class PreviewTextureView extends FrameLayout {
 	private void init() {
 		textureView = new TextureView(getContext());
 		addView(textureView);
+		overlay = new RecordingOverlay(getContext());
 	}
 
 	public boolean isRecording() {
@@ -43,42 +42,53 @@ public class PreviewTextureView extends FrameLayout {
 	}
 
 	public void setRecording(boolean isRecording) {
+		if (this.isRecording == isRecording)
+			return;
 		this.isRecording = isRecording;
 		invalidate();
 	}
 
+	/**
+	 * Shows the HUD's elapsed time and level while recording. The HUD
+	 * invalidates its own rect of this view as it samples.
+	 */
+	public void setHud(RecordingHud hud) {
+		this.hud = hud;
+		attachHud();
+	}
+
+	private void attachHud() {
+		if (hud == null)
+			return;
+		final Rect bounds = overlay.getHudBounds();
+		hud.setHost(this, bounds.left, bounds.top, bounds.right, bounds.bottom);
+	}
+
 	public void setSurfaceTextureListener(SurfaceTextureListener listener) {
 		textureView.setSurfaceTextureListener(listener);
 		
 	}
 	
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		overlay.setSize(w, h);
+		attachHud();
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		overlay.release();
+	}
+
 	@Override
 	protected void dispatchDraw(Canvas canvas) {
 		super.dispatchDraw(canvas);
-		Log.d(VIEW_LOG_TAG, "dispatchDraw " + isRecording);
-		if(isRecording)
-			drawIndicator(canvas);
-	}
-	
-	private void drawIndicator(Canvas c){
-		Path borderPath = new Path();
-		borderPath.lineTo(c.getWidth(), 0);
-		borderPath.lineTo(c.getWidth(), c.getHeight());
-		borderPath.lineTo(0, c.getHeight());
-		borderPath.lineTo(0, 0);
-		Paint paint = new Paint();
-		paint.setColor(0xffCC171E);
-		paint.setStrokeWidth(Convenience.dpToPx(getContext(), 2));
-		paint.setStyle(Paint.Style.STROKE);
-		c.drawPath(borderPath, paint);
-		paint.setColor(0xffCC171E);
-		paint.setStyle(Paint.Style.FILL);
-		c.drawCircle(Convenience.dpToPx(getContext(), 13), Convenience.dpToPx(getContext(), 13), 
-				Convenience.dpToPx(getContext(), 4), paint);
-		paint.setAntiAlias(true);
-		paint.setTextSize(Convenience.dpToPx(getContext(), 13)); //some size
-		paint.setTypeface(Typeface.defaultFromStyle(Typeface.BOLD));
-		paint.setTextAlign(Align.CENTER);
-		c.drawText("Recording...", c.getWidth()/2, c.getHeight() - 13, paint);
+		if (isRecording) {
+			overlay.draw(canvas);
+			if (hud != null && hud.isRunning())
+				overlay.drawHud(canvas, hud.getElapsedMillis(), hud.getLevel());
+		}
 	}
 }
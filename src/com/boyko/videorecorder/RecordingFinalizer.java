@@ -0,0 +1,171 @@
+package com.boyko.videorecorder;
+
+import java.io.File;
+
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.media.MediaRecorder;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+/**
+ * Background stage that finishes recordings so that stopping never blocks the
+ * UI thread. Jobs run one at a time, in submission order, on a dedicated
+ * thread; results are reported on the main thread.
+ */
+public class RecordingFinalizer {
+
+	private static final String TAG = "RecordingFinalizer";
+
+	/**
+	 * Completion callbacks, always called on the main thread.
+	 */
+	public interface Callback {
+		/**
+		 * The camera is free again and the next clip can be started, even if
+		 * the previous file is still being written.
+		 */
+		void onCameraReady();
+
+		/**
+		 * @param file
+		 *            The finished file, or null if nothing usable was
+		 *            recorded.
+		 */
+		void onFinalized(File file);
+	}
+
+	/**
+	 * Work that closes a recording which no longer needs the camera.
+	 */
+	public interface Job {
+		/**
+		 * @return the finished file, or null if it could not be finished.
+		 */
+		File run();
+	}
+
+	private final HandlerThread thread;
+	private final Handler handler;
+	private final CameraController cameraController;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private final LatencyMeter finalizeLatency = new LatencyMeter("recording finalize");
+
+	/**
+	 * @param cameraController
+	 *            Used to take the camera back from finished recorders.
+	 */
+	public RecordingFinalizer(CameraController cameraController) {
+		this.cameraController = cameraController;
+		thread = new HandlerThread(TAG);
+		thread.start();
+		handler = new Handler(thread.getLooper());
+	}
+
+	/**
+	 * Stops a {@link MediaRecorder}, takes the camera back on the camera
+	 * thread as soon as the recorder let go of it, and then releases the
+	 * recorder and checks the output file.
+	 */
+	public void submit(final MediaRecorder recorder, final Camera camera, final File file, final Callback callback) {
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				final long start = System.currentTimeMillis();
+				boolean ok = true;
+				try {
+					recorder.stop();
+				} catch (RuntimeException e) {
+					// Nothing was recorded, the clip is too short
+					ok = false;
+				}
+				// The recorder holds the camera until stop() returns
+				cameraController.post(new Runnable() {
+					@Override
+					public void run() {
+						camera.lock();
+						postCameraReady(callback);
+					}
+				});
+				recorder.reset();
+				recorder.release();
+
+				File result = ok ? file : null;
+				if (file != null && (!ok || file.length() == 0)) {
+					file.delete();
+					result = null;
+				}
+				finalizeLatency.record(System.currentTimeMillis() - start);
+				postFinalized(callback, result);
+			}
+		});
+	}
+
+	/**
+	 * Runs a job that does not hold the camera, so the camera is reported
+	 * ready straight away.
+	 */
+	public void submit(final Job job, final Callback callback) {
+		postCameraReady(callback);
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				final long start = System.currentTimeMillis();
+				File result = job.run();
+				finalizeLatency.record(System.currentTimeMillis() - start);
+				postFinalized(callback, result);
+			}
+		});
+	}
+
+	/**
+	 * Releases the camera and its preview texture once every job submitted so
+	 * far has finished, so after their recorders gave the camera back. Does
+	 * not block; meant for teardown.
+	 */
+	public void releaseCamera(final Camera camera, final SurfaceTexture texture) {
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				cameraController.release(camera, texture);
+			}
+		});
+	}
+
+	/**
+	 * Finishes pending jobs and stops the thread, then the camera thread once
+	 * it has run what the jobs posted to it.
+	 */
+	public void quit() {
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				thread.quit();
+				cameraController.quit();
+			}
+		});
+	}
+
+	private void postCameraReady(final Callback callback) {
+		if (callback == null)
+			return;
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				callback.onCameraReady();
+			}
+		});
+	}
+
+	private void postFinalized(final Callback callback, final File file) {
+		if (callback == null)
+			return;
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				callback.onFinalized(file);
+			}
+		});
+	}
+}
@@ -0,0 +1,165 @@
+package com.boyko.videorecorder;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.view.View;
+
+/**
+ * Feeds the live part of the recording overlay: elapsed time and the audio
+ * input level. The level is sampled on a thread of its own at a fixed rate,
+ * {@link #REFRESH_MS}, independent of preview frames, and each sample only
+ * invalidates the HUD's rect of the host. Starting and stopping never wait
+ * for the sampler, so they are safe on the touch path.
+ */
+public class RecordingHud {
+
+	private static final String TAG = "RecordingHud";
+
+	public static final long REFRESH_MS = 100;
+	/** Levels below this are shown as silence */
+	private static final float MIN_DB = -60;
+	/** Share of the previous level kept per refresh when it falls */
+	private static final float DECAY = 0.8f;
+
+	/**
+	 * Where the level comes from, e.g.
+	 * {@link android.media.MediaRecorder#getMaxAmplitude()}. Called on the
+	 * sampler thread, possibly while the recording is being stopped.
+	 */
+	public interface AmplitudeSource {
+		/**
+		 * @return the peak amplitude since the last call, from 0 to 32767.
+		 */
+		int getMaxAmplitude();
+	}
+
+	private final HandlerThread thread;
+	private final Handler handler;
+	private final AmplitudeSource source;
+
+	private volatile View host;
+	private volatile int left;
+	private volatile int top;
+	private volatile int right;
+	private volatile int bottom;
+
+	private volatile boolean isRunning;
+	private volatile long startTime;
+	/** From 0 to 1 */
+	private volatile float level;
+	// Owned by the sampler thread
+	private long nextSample;
+
+	private final Runnable sampler = new Runnable() {
+		@Override
+		public void run() {
+			if (!isRunning)
+				return;
+			int amplitude;
+			try {
+				amplitude = source.getMaxAmplitude();
+			} catch (IllegalStateException e) {
+				// The recorder stopped under us
+				amplitude = 0;
+			}
+			level = Math.max(toLevel(amplitude), level * DECAY);
+
+			final View host = RecordingHud.this.host;
+			if (host != null)
+				host.postInvalidate(left, top, right, bottom);
+
+			// Fixed rate, skipping samples if the thread fell behind
+			final long now = SystemClock.uptimeMillis();
+			nextSample += REFRESH_MS;
+			if (nextSample <= now)
+				nextSample = now + REFRESH_MS;
+			handler.postAtTime(this, nextSample);
+		}
+	};
+
+	/**
+	 * Runs on the sampler thread, so a sample that was in flight when the
+	 * previous recording stopped cannot leave a second chain behind.
+	 */
+	private final Runnable starter = new Runnable() {
+		@Override
+		public void run() {
+			handler.removeCallbacks(sampler);
+			nextSample = SystemClock.uptimeMillis();
+			sampler.run();
+		}
+	};
+
+	public RecordingHud(AmplitudeSource source) {
+		this.source = source;
+		thread = new HandlerThread(TAG);
+		thread.start();
+		handler = new Handler(thread.getLooper());
+	}
+
+	/**
+	 * Sets the view the HUD is drawn in and the rect it covers there.
+	 */
+	public void setHost(View host, int left, int top, int right, int bottom) {
+		this.left = left;
+		this.top = top;
+		this.right = right;
+		this.bottom = bottom;
+		this.host = host;
+	}
+
+	/**
+	 * Starts sampling.
+	 *
+	 * @param startTime
+	 *            When the recording started, in the
+	 *            {@link SystemClock#uptimeMillis()} time base.
+	 */
+	public void start(long startTime) {
+		this.startTime = startTime;
+		level = 0;
+		isRunning = true;
+		handler.removeCallbacks(starter);
+		handler.post(starter);
+	}
+
+	/**
+	 * Stops sampling. Returns at once, a sample in progress is dropped.
+	 */
+	public void stop() {
+		isRunning = false;
+		handler.removeCallbacks(starter);
+		handler.removeCallbacks(sampler);
+	}
+
+	public boolean isRunning() {
+		return isRunning;
+	}
+
+	public long getElapsedMillis() {
+		return isRunning ? SystemClock.uptimeMillis() - startTime : 0;
+	}
+
+	/**
+	 * @return the smoothed input level, from 0 to 1 on a decibel scale.
+	 */
+	public float getLevel() {
+		return level;
+	}
+
+	/**
+	 * Stops the sampler thread.
+	 */
+	public void quit() {
+		stop();
+		thread.quit();
+	}
+
+	private static float toLevel(int amplitude) {
+		if (amplitude <= 0)
+			return 0;
+		final float db = (float) (20 * Math.log10(amplitude / 32767.0));
+		return Math.max(0, Math.min(1, 1 - db / MIN_DB));
+	}
+}
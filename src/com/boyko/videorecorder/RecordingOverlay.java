@@ -0,0 +1,157 @@
+package com.boyko.videorecorder;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Paint.Align;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+
+/**
+ * Draws the recording indicator of a camera preview: a border, a dot and a
+ * label. Everything is the same color, so the overlay is rendered once per
+ * size into an alpha-only layer and each draw is a single bitmap blit, with
+ * no allocations. Used by {@link Preview} and {@link PreviewTextureView}; the
+ * host calls {@link #setSize} when its size changes.
+ * <p>
+ * Hosts with a {@link RecordingHud} also draw its elapsed time and level
+ * meter with {@link #drawHud}, inside {@link #getHudBounds} at the top right.
+ */
+public class RecordingOverlay {
+
+	private static final int COLOR = 0xffCC171E;
+	private static final String LABEL = "Recording...";
+	/** Distance from the label's baseline to the bottom edge, in pixels */
+	private static final int LABEL_BOTTOM = 13;
+	private static final int METER_TRACK_COLOR = 0x66000000;
+
+	private final float strokeWidth;
+	private final float dotCenter;
+	private final float dotRadius;
+	private final Paint strokePaint = new Paint();
+	private final Paint fillPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	/** Colors the alpha-only layer */
+	private final Paint layerPaint = new Paint();
+	private final Paint trackPaint = new Paint();
+
+	// HUD geometry, from the size
+	private final float margin;
+	private final float meterWidth;
+	private final float meterHeight;
+	private final Rect hudBounds = new Rect();
+	private final RectF meterTrack = new RectF();
+	private final RectF meterFill = new RectF();
+	private float timeX;
+	private float timeBaseline;
+	/** "mm:ss", rewritten in place */
+	private final char[] time = { '0', '0', ':', '0', '0' };
+
+	private int width;
+	private int height;
+	private Bitmap layer;
+
+	public RecordingOverlay(Context context) {
+		strokeWidth = Convenience.dpToPx(context, 2);
+		dotCenter = Convenience.dpToPx(context, 13);
+		dotRadius = Convenience.dpToPx(context, 4);
+		margin = Convenience.dpToPx(context, 6);
+		meterWidth = Convenience.dpToPx(context, 40);
+		meterHeight = Convenience.dpToPx(context, 4);
+
+		strokePaint.setStyle(Paint.Style.STROKE);
+		strokePaint.setStrokeWidth(strokeWidth);
+		fillPaint.setStyle(Paint.Style.FILL);
+		textPaint.setTextSize(Convenience.dpToPx(context, 13));
+		textPaint.setTypeface(Typeface.defaultFromStyle(Typeface.BOLD));
+		textPaint.setTextAlign(Align.CENTER);
+		// Only the alpha counts in the layer, the HUD draws in color
+		textPaint.setColor(COLOR);
+		layerPaint.setColor(COLOR);
+		trackPaint.setColor(METER_TRACK_COLOR);
+	}
+
+	/**
+	 * Sets the size of the host. The layer is rendered again on the next
+	 * draw if it changed.
+	 */
+	public void setSize(int width, int height) {
+		if (width == this.width && height == this.height)
+			return;
+		this.width = width;
+		this.height = height;
+		release();
+
+		// Time right aligned at the top right, the meter below it
+		final float textWidth = textPaint.measureText(time, 0, time.length);
+		final float right = width - margin;
+		final float left = right - Math.max(textWidth, meterWidth);
+		timeX = right - textWidth / 2;
+		timeBaseline = margin - textPaint.ascent();
+		final float meterTop = timeBaseline + textPaint.descent() + margin / 2;
+		meterTrack.set(right - meterWidth, meterTop, right, meterTop + meterHeight);
+		hudBounds.set((int) Math.floor(left), (int) Math.floor(margin), (int) Math.ceil(right),
+				(int) Math.ceil(meterTrack.bottom));
+	}
+
+	/**
+	 * @return the rect {@link #drawHud} draws in, for invalidating only that
+	 *         part of the host.
+	 */
+	public Rect getHudBounds() {
+		return hudBounds;
+	}
+
+	/**
+	 * Draws the elapsed time and the input level meter.
+	 *
+	 * @param level
+	 *            From 0 to 1.
+	 */
+	public void drawHud(Canvas canvas, long elapsedMillis, float level) {
+		if (width <= 0 || height <= 0)
+			return;
+		final int seconds = (int) Math.min(99 * 60 + 59, elapsedMillis / 1000);
+		final int minutes = seconds / 60;
+		time[0] = (char) ('0' + minutes / 10);
+		time[1] = (char) ('0' + minutes % 10);
+		time[3] = (char) ('0' + seconds % 60 / 10);
+		time[4] = (char) ('0' + seconds % 10);
+		canvas.drawText(time, 0, time.length, timeX, timeBaseline, textPaint);
+
+		canvas.drawRect(meterTrack, trackPaint);
+		meterFill.set(meterTrack);
+		meterFill.right = meterTrack.left + meterTrack.width() * Math.max(0, Math.min(1, level));
+		canvas.drawRect(meterFill, layerPaint);
+	}
+
+	public void draw(Canvas canvas) {
+		if (width <= 0 || height <= 0)
+			return;
+		if (layer == null)
+			layer = render();
+		canvas.drawBitmap(layer, 0, 0, layerPaint);
+	}
+
+	/**
+	 * Frees the layer; it is rendered again if the overlay is drawn later.
+	 */
+	public void release() {
+		if (layer != null) {
+			layer.recycle();
+			layer = null;
+		}
+	}
+
+	private Bitmap render() {
+		final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+		final Canvas canvas = new Canvas(bitmap);
+		// The stroke is centered on the edges, half of it shows
+		canvas.drawRect(0, 0, width, height, strokePaint);
+		canvas.drawCircle(dotCenter, dotCenter, dotRadius, fillPaint);
+		canvas.drawText(LABEL, width / 2f, height - LABEL_BOTTOM, textPaint);
+		return bitmap;
+	}
+}
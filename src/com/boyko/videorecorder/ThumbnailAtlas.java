@@ -0,0 +1,166 @@
+package com.boyko.videorecorder;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+
+/**
+ * The bundled friend images, pre-scaled and packed onto one sheet by
+ * {@code tools/AtlasPacker}. The asset is stored uncompressed and mapped
+ * straight from the APK, and the sheet decoded once, so showing a bundled
+ * image is a lookup of its region instead of opening and decoding a file. See
+ * the packer for the file layout.
+ */
+public class ThumbnailAtlas {
+
+	public static final String ASSET = "thumbs.atlas";
+
+	private static final int MAGIC = 0x41544C53; // "ATLS"
+	private static final int FORMAT_VERSION = 1;
+
+	private final Bitmap sheet;
+	private final HashMap<String, Rect> regions;
+
+	private ThumbnailAtlas(Bitmap sheet, HashMap<String, Rect> regions) {
+		this.sheet = sheet;
+		this.regions = regions;
+	}
+
+	/**
+	 * Maps and decodes the atlas. Does I/O and decoding, so must be called off
+	 * the UI thread.
+	 */
+	public static ThumbnailAtlas load(AssetManager assets, String name) throws IOException {
+		final AssetFileDescriptor fd;
+		try {
+			fd = assets.openFd(name);
+		} catch (FileNotFoundException e) {
+			// Packaged compressed, which only allows streaming it
+			return parse(ByteBuffer.wrap(readFully(assets.open(name))), name);
+		}
+		final FileInputStream in = fd.createInputStream();
+		try {
+			// The mapping outlives the descriptor
+			return parse(in.getChannel().map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength()),
+					name);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static ThumbnailAtlas parse(ByteBuffer data, String name) throws IOException {
+		try {
+			if (data.getInt() != MAGIC || data.getInt() != FORMAT_VERSION)
+				throw new IOException("Not an atlas: " + name);
+			final int count = data.getShort() & 0xffff;
+			final HashMap<String, Rect> regions = new HashMap<String, Rect>(count * 2);
+			for (int i = 0; i < count; i++) {
+				final String path = readName(data);
+				final int x = data.getShort() & 0xffff;
+				final int y = data.getShort() & 0xffff;
+				regions.put(path, new Rect(x, y, x + (data.getShort() & 0xffff), y + (data.getShort() & 0xffff)));
+			}
+			final int length = data.getInt();
+			if (length > data.remaining())
+				throw new IOException("Truncated atlas: " + name);
+			data.limit(data.position() + length);
+
+			// The sheet is opaque, so half the memory of ARGB
+			final BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inPreferredConfig = Bitmap.Config.RGB_565;
+			final Bitmap sheet = BitmapFactory.decodeStream(new BufferInputStream(data), null, options);
+			if (sheet == null)
+				throw new IOException("Cannot decode atlas sheet: " + name);
+			return new ThumbnailAtlas(sheet, regions);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated atlas: " + name);
+		}
+	}
+
+	/**
+	 * Reads a string written by DataOutputStream.writeUTF. File names have no
+	 * characters where modified UTF-8 differs from UTF-8.
+	 */
+	private static String readName(ByteBuffer data) throws IOException {
+		final byte[] bytes = new byte[data.getShort() & 0xffff];
+		data.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	public boolean contains(String path) {
+		return regions.containsKey(path);
+	}
+
+	/**
+	 * @return a drawable of the image's region, or null if the atlas does not
+	 *         have it.
+	 */
+	public AtlasRegionDrawable newDrawable(String path) {
+		final Rect region = regions.get(path);
+		return region == null ? null : new AtlasRegionDrawable(sheet, region);
+	}
+
+	public Bitmap getSheet() {
+		return sheet;
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		try {
+			// Asset streams know their full length
+			byte[] data = new byte[Math.max(in.available(), 8 * 1024)];
+			int length = 0;
+			int read;
+			while ((read = in.read(data, length, data.length - length)) != -1) {
+				length += read;
+				if (length == data.length)
+					data = Arrays.copyOf(data, data.length * 2);
+			}
+			return length == data.length ? data : Arrays.copyOf(data, length);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Streams the sheet to the decoder from the mapped asset, without copying
+	 * it to the heap first.
+	 */
+	private static class BufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		BufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!buffer.hasRemaining())
+				return -1;
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
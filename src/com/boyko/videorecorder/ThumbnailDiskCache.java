@@ -0,0 +1,189 @@
+package com.boyko.videorecorder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Disk tier below the {@link ThumbnailLoader} memory cache. Keeps thumbnails
+ * already scaled to the cell size as files, so a cold start reads small
+ * images instead of decoding the full-size sources again. Entries are keyed
+ * by source path, modification stamp and target size; the directory is
+ * bounded in bytes and evicts the least recently used files, using the file
+ * modification time as access time.
+ * <p>
+ * Every method does disk I/O and must be called off the UI thread.
+ */
+public class ThumbnailDiskCache {
+
+	private static final String TAG = "ThumbnailDiskCache";
+	private static final int JPEG_QUALITY = 90;
+
+	private final File dir;
+	private final long maxBytes;
+	private final BitmapPool pool;
+	private long size = -1;
+
+	/**
+	 * @param pool
+	 *            Supplies bitmaps to decode into, or null.
+	 */
+	public ThumbnailDiskCache(File dir, long maxBytes, BitmapPool pool) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		this.pool = pool;
+	}
+
+	/**
+	 * @return the cached thumbnail, or null.
+	 */
+	public synchronized Bitmap get(String path, long stamp, int width, int height) {
+		final File file = getFile(path, stamp, width, height);
+		if (!file.exists())
+			return null;
+		final Bitmap bitmap = decode(file);
+		if (bitmap == null) {
+			// Unreadable, drop it
+			remove(file);
+			return null;
+		}
+		file.setLastModified(System.currentTimeMillis());
+		return bitmap;
+	}
+
+	private Bitmap decode(File file) {
+		if (pool == null)
+			return BitmapFactory.decodeFile(file.getPath());
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(file.getPath(), options);
+		if (options.outWidth <= 0)
+			return null;
+		options.inJustDecodeBounds = false;
+		pool.setInBitmap(options, options.outWidth, options.outHeight);
+		try {
+			return BitmapFactory.decodeFile(file.getPath(), options);
+		} catch (IllegalArgumentException e) {
+			pool.onDecodeFailed(options);
+			return BitmapFactory.decodeFile(file.getPath(), options);
+		}
+	}
+
+	/**
+	 * Stores a thumbnail; the file appears atomically, so a reader never sees
+	 * it half written even if the process dies.
+	 */
+	public synchronized void put(String path, long stamp, int width, int height, Bitmap bitmap) {
+		ensureSize();
+		final File file = getFile(path, stamp, width, height);
+		final File tmp = new File(file.getPath() + ".tmp");
+		OutputStream out = null;
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(tmp));
+			bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+			out.close();
+			out = null;
+			if (file.exists())
+				remove(file);
+			if (!tmp.renameTo(file)) {
+				Logger.e(TAG, "Cannot rename " + tmp);
+				tmp.delete();
+				return;
+			}
+			size += file.length();
+			trim();
+		} catch (IOException e) {
+			Logger.e(TAG, "Cannot write " + file, e);
+			tmp.delete();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return bytes used on disk.
+	 */
+	public synchronized long getSize() {
+		ensureSize();
+		return size;
+	}
+
+	private void ensureSize() {
+		if (size >= 0)
+			return;
+		if (!dir.exists() && !dir.mkdirs())
+			Logger.e(TAG, "Cannot create " + dir);
+		size = 0;
+		final File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		for (File file : files) {
+			if (file.getName().endsWith(".tmp"))
+				file.delete();
+			else
+				size += file.length();
+		}
+	}
+
+	/**
+	 * Deletes the least recently used files until the directory fits.
+	 */
+	private void trim() {
+		if (size <= maxBytes)
+			return;
+		final File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				final long l = lhs.lastModified();
+				final long r = rhs.lastModified();
+				return l < r ? -1 : (l == r ? 0 : 1);
+			}
+		});
+		for (int i = 0; i < files.length && size > maxBytes; i++)
+			remove(files[i]);
+	}
+
+	private void remove(File file) {
+		final long length = file.length();
+		if (file.delete() && size >= 0)
+			size -= length;
+	}
+
+	private File getFile(String path, long stamp, int width, int height) {
+		return new File(dir, hash(path + "|" + stamp + "|" + width + "x" + height) + ".jpg");
+	}
+
+	private static String hash(String key) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+			final StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+				sb.append(Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return Integer.toHexString(key.hashCode());
+		} catch (IOException e) {
+			return Integer.toHexString(key.hashCode());
+		}
+	}
+}
@@ -0,0 +1,590 @@
+package com.boyko.videorecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+/**
+ * Loads asset images into image views at the size they are shown. Decoding
+ * runs on a small worker pool with {@link BitmapFactory.Options#inSampleSize}
+ * so full resolution images are never held in memory; results are kept in a
+ * byte-bounded LRU cache, backed by a {@link ThumbnailDiskCache} of scaled
+ * thumbnails that survives restarts. Rebinding a view cancels its previous
+ * request.
+ * <p>
+ * Bitmaps are reference counted by the cache and by the views showing them;
+ * once neither holds a bitmap any more it goes to a {@link BitmapPool} and
+ * later decodes reuse it.
+ * <p>
+ * Images packed into the {@link ThumbnailAtlas} skip all of this: once the
+ * atlas is loaded, they are shown as regions of its sheet.
+ * <p>
+ * Poster frames of video clips go through the same caches, keyed by clip and
+ * its length. They are extracted on a separate single worker, so at most
+ * {@link #POSTER_DECODERS} video decoders run at a time and images never
+ * wait behind them.
+ * <p>
+ * {@link #load} and {@link #cancel} must be called on the main thread.
+ */
+public class ThumbnailLoader {
+
+	private static final String TAG = "ThumbnailLoader";
+	private static final int WORKERS = 2;
+	private static final int POSTER_DECODERS = 1;
+	private static final long DISK_CACHE_BYTES = 8 * 1024 * 1024;
+	private static final long POOL_BYTES = 4 * 1024 * 1024;
+	private static final Paint SCALE_PAINT = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+	private final Context context;
+	private final AssetManager assets;
+	private final ExecutorService executor;
+	private final ExecutorService posterExecutor;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private final LruCache<String, Bitmap> memoryCache;
+	private final ThumbnailDiskCache diskCache;
+	/**
+	 * Assets change only with the APK, so its install time stamps them
+	 */
+	private final long assetStamp;
+	/** The request currently bound to each view */
+	private final WeakHashMap<ImageView, Request> requests = new WeakHashMap<ImageView, Request>();
+	/** The bitmap each view shows, holding a reference on it */
+	private final WeakHashMap<ImageView, Bitmap> shown = new WeakHashMap<ImageView, Bitmap>();
+	private final BitmapPool pool = new BitmapPool(POOL_BYTES);
+	/** References held on each bitmap, guarded by itself */
+	private final HashMap<Bitmap, Integer> references = new HashMap<Bitmap, Integer>();
+	/** Set by the first worker that needs it; null until then or if missing */
+	private volatile ThumbnailAtlas atlas;
+	private boolean atlasLoaded;
+
+	private final AtomicInteger hitCount = new AtomicInteger();
+	private final AtomicInteger missCount = new AtomicInteger();
+	private final LatencyMeter decodeLatency = new LatencyMeter("thumbnail decode");
+	/** Request to result, by where the thumbnail came from */
+	private final LatencyMeter diskLoadLatency = new LatencyMeter("thumbnail load (disk)");
+	private final LatencyMeter assetLoadLatency = new LatencyMeter("thumbnail load (asset)");
+	private final LatencyMeter atlasLoadLatency = new LatencyMeter("thumbnail atlas load");
+	private final LatencyMeter posterExtractLatency = new LatencyMeter("poster frame extract");
+	private final LatencyMeter posterLoadLatency = new LatencyMeter("thumbnail load (poster)");
+
+	public ThumbnailLoader(Context context) {
+		this.context = context.getApplicationContext();
+		assets = this.context.getAssets();
+		diskCache = new ThumbnailDiskCache(new File(context.getCacheDir(), "thumbs"), DISK_CACHE_BYTES, pool);
+		long stamp = 0;
+		try {
+			stamp = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+		} catch (PackageManager.NameNotFoundException e) {
+			Logger.e(TAG, "Cannot read package info", e);
+		}
+		assetStamp = stamp;
+		// An eighth of the heap for thumbnails
+		final int maxBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+		memoryCache = new LruCache<String, Bitmap>(maxBytes) {
+			@Override
+			protected int sizeOf(String key, Bitmap value) {
+				return value.getByteCount();
+			}
+
+			@Override
+			protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+				if (oldValue != newValue)
+					releaseReference(oldValue);
+			}
+		};
+		executor = newWorkers(WORKERS, TAG);
+		posterExecutor = newWorkers(POSTER_DECODERS, TAG + " poster");
+		// Usually ready by the time the grid binds its first cell
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				getAtlas();
+			}
+		});
+	}
+
+	private static ExecutorService newWorkers(int threads, final String name) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				return new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						r.run();
+					}
+				}, name + " #" + count.incrementAndGet());
+			}
+		});
+	}
+
+	/**
+	 * Shows the asset in the view, scaled down to about the given size.
+	 * Cached thumbnails are set right away, others once decoded; until then
+	 * the view is cleared.
+	 */
+	public void load(String path, ImageView view, int width, int height) {
+		cancel(view);
+		final ThumbnailAtlas atlas = this.atlas;
+		if (atlas != null && atlas.contains(path)) {
+			hitCount.incrementAndGet();
+			showRegion(view, atlas.newDrawable(path));
+			return;
+		}
+		final String key = getKey(path, width, height);
+		final Bitmap cached = getCached(key);
+		if (cached != null) {
+			hitCount.incrementAndGet();
+			show(view, cached);
+			return;
+		}
+		missCount.incrementAndGet();
+		show(view, null);
+		final Request request = new Request(path, key, view, width, height);
+		requests.put(view, request);
+		executor.execute(request);
+	}
+
+	/**
+	 * Shows a poster frame of the video clip in the view, scaled down to
+	 * about the given size, like {@link #load}.
+	 */
+	public void loadPoster(Uri video, ImageView view, int width, int height) {
+		cancel(view);
+		final String path = video.toString();
+		// A clip recorded again under the same name must not hit the old
+		// poster
+		final long stamp = getVideoStamp(video);
+		final String key = getKey(path + "#" + stamp, width, height);
+		final Bitmap cached = getCached(key);
+		if (cached != null) {
+			hitCount.incrementAndGet();
+			show(view, cached);
+			return;
+		}
+		missCount.incrementAndGet();
+		show(view, null);
+		final Request request = new Request(path, key, view, width, height);
+		request.video = video;
+		request.stamp = stamp;
+		requests.put(view, request);
+		posterExecutor.execute(request);
+	}
+
+	/**
+	 * Drops the pending request of the view, if any.
+	 */
+	public void cancel(ImageView view) {
+		final Request request = requests.remove(view);
+		if (request != null)
+			request.cancelled = true;
+	}
+
+	public int getHitCount() {
+		return hitCount.get();
+	}
+
+	public int getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * @return the share of loads served from memory, from 0 to 1.
+	 */
+	public float getHitRate() {
+		final int hits = hitCount.get();
+		final int total = hits + missCount.get();
+		return total == 0 ? 0 : (float) hits / total;
+	}
+
+	public BitmapPool getBitmapPool() {
+		return pool;
+	}
+
+	public LatencyMeter getDecodeLatency() {
+		return decodeLatency;
+	}
+
+	/**
+	 * @return time from request to thumbnail for thumbnails read from the
+	 *         disk cache.
+	 */
+	public LatencyMeter getDiskLoadLatency() {
+		return diskLoadLatency;
+	}
+
+	/**
+	 * @return time from request to thumbnail for thumbnails decoded from the
+	 *         source assets, the cold path without a disk cache.
+	 */
+	public LatencyMeter getAssetLoadLatency() {
+		return assetLoadLatency;
+	}
+
+	public LatencyMeter getAtlasLoadLatency() {
+		return atlasLoadLatency;
+	}
+
+	public LatencyMeter getPosterExtractLatency() {
+		return posterExtractLatency;
+	}
+
+	/**
+	 * @return time from request to thumbnail for poster frames extracted from
+	 *         their clips.
+	 */
+	public LatencyMeter getPosterLoadLatency() {
+		return posterLoadLatency;
+	}
+
+	/**
+	 * Logs a summary of every latency meter.
+	 */
+	public void logLatencies() {
+		decodeLatency.logSummary();
+		diskLoadLatency.logSummary();
+		assetLoadLatency.logSummary();
+		atlasLoadLatency.logSummary();
+		posterExtractLatency.logSummary();
+		posterLoadLatency.logSummary();
+	}
+
+	/**
+	 * Stops the workers and empties the cache.
+	 */
+	public void release() {
+		for (Request request : requests.values())
+			request.cancelled = true;
+		requests.clear();
+		executor.shutdownNow();
+		posterExecutor.shutdownNow();
+		memoryCache.evictAll();
+		pool.clear();
+	}
+
+	/**
+	 * Sets the bitmap on the view, taking over a reference the caller holds,
+	 * and releases the one on the bitmap the view showed before.
+	 */
+	private void show(ImageView view, Bitmap bitmap) {
+		final Bitmap previous = bitmap != null ? shown.put(view, bitmap) : shown.remove(view);
+		view.setImageBitmap(bitmap);
+		if (previous != null)
+			releaseReference(previous);
+	}
+
+	/**
+	 * Sets an atlas region on the view. The atlas owns its sheet, so no
+	 * reference is held for it.
+	 */
+	private void showRegion(ImageView view, Drawable region) {
+		final Bitmap previous = shown.remove(view);
+		view.setImageDrawable(region);
+		if (previous != null)
+			releaseReference(previous);
+	}
+
+	/**
+	 * Loads the atlas on first use. Called on the workers only.
+	 * 
+	 * @return the atlas, or null if the APK has none.
+	 */
+	private synchronized ThumbnailAtlas getAtlas() {
+		if (!atlasLoaded) {
+			atlasLoaded = true;
+			final long start = System.currentTimeMillis();
+			try {
+				atlas = ThumbnailAtlas.load(assets, ThumbnailAtlas.ASSET);
+				atlasLoadLatency.record(System.currentTimeMillis() - start);
+			} catch (IOException e) {
+				Logger.e(TAG, "Cannot load " + ThumbnailAtlas.ASSET, e);
+			}
+		}
+		return atlas;
+	}
+
+	/**
+	 * @return the cached bitmap with a reference held for the caller, or
+	 *         null.
+	 */
+	private Bitmap getCached(String key) {
+		// Under the lock, an eviction cannot hand the bitmap to the pool
+		// between the lookup and the new reference
+		synchronized (references) {
+			final Bitmap bitmap = memoryCache.get(key);
+			if (bitmap != null)
+				addReference(bitmap);
+			return bitmap;
+		}
+	}
+
+	private void addReference(Bitmap bitmap) {
+		synchronized (references) {
+			final Integer count = references.get(bitmap);
+			references.put(bitmap, count == null ? 1 : count + 1);
+		}
+	}
+
+	private void releaseReference(Bitmap bitmap) {
+		synchronized (references) {
+			final Integer count = references.get(bitmap);
+			if (count != null && count > 1) {
+				references.put(bitmap, count - 1);
+				return;
+			}
+			references.remove(bitmap);
+		}
+		pool.put(bitmap);
+	}
+
+	private static String getKey(String path, int width, int height) {
+		return path + "@" + width + "x" + height;
+	}
+
+	/**
+	 * @return the largest power of two that keeps the decoded image at least
+	 *         as big as the requested size.
+	 */
+	static int computeSampleSize(int sourceWidth, int sourceHeight, int width, int height) {
+		int sampleSize = 1;
+		if (width <= 0 || height <= 0)
+			return sampleSize;
+		while (sourceWidth / (sampleSize * 2) >= width && sourceHeight / (sampleSize * 2) >= height)
+			sampleSize *= 2;
+		return sampleSize;
+	}
+
+	private Bitmap decode(String path, int width, int height) throws IOException {
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		decodeAsset(path, options);
+
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = computeSampleSize(options.outWidth, options.outHeight, width, height);
+		pool.setInBitmap(options, (options.outWidth + options.inSampleSize - 1) / options.inSampleSize,
+				(options.outHeight + options.inSampleSize - 1) / options.inSampleSize);
+		Bitmap bitmap;
+		try {
+			bitmap = decodeAsset(path, options);
+		} catch (IllegalArgumentException e) {
+			// The pooled bitmap did not fit after all
+			pool.onDecodeFailed(options);
+			bitmap = decodeAsset(path, options);
+		}
+		return bitmap == null ? null : scaleToCover(bitmap, width, height, true);
+	}
+
+	/**
+	 * Extracts a representative frame of the clip and scales it to cover the
+	 * given size. From Android 8.1 the frame is scaled while it is decoded,
+	 * before that the full size frame is decoded and scaled afterwards.
+	 */
+	private Bitmap extractPoster(Uri video, int width, int height) {
+		final MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+		try {
+			retriever.setDataSource(context, video);
+			Bitmap frame = null;
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1)
+				frame = getScaledFrame(retriever, width, height);
+			if (frame == null)
+				frame = retriever.getFrameAtTime();
+			// A full size frame would push every tile out of the pool
+			return frame == null ? null : scaleToCover(frame, width, height, false);
+		} catch (RuntimeException e) {
+			// Thrown for clips the retriever cannot open
+			Logger.e(TAG, "Cannot extract a poster frame of " + video, e);
+			return null;
+		} finally {
+			retriever.release();
+		}
+	}
+
+	/**
+	 * @return the frame closest to a sync frame, scaled to cover the given
+	 *         size, or null if the clip's size is unknown.
+	 */
+	@TargetApi(Build.VERSION_CODES.O_MR1)
+	private static Bitmap getScaledFrame(MediaMetadataRetriever retriever, int width, int height) {
+		final int videoWidth = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+		final int videoHeight = parseInt(retriever
+				.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+		if (videoWidth <= 0 || videoHeight <= 0 || width <= 0 || height <= 0)
+			return null;
+		final float scale = Math.min(1, Math.max((float) width / videoWidth, (float) height / videoHeight));
+		// The frame is fit into the box keeping its aspect ratio; a square
+		// with the scaled longer side gives the covering size whether or not
+		// the frame gets rotated
+		final int side = Math.max(1, Math.round(Math.max(videoWidth, videoHeight) * scale));
+		return retriever.getScaledFrameAtTime(-1, MediaMetadataRetriever.OPTION_CLOSEST_SYNC, side, side);
+	}
+
+	private static int parseInt(String value) {
+		if (value == null)
+			return 0;
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @return what identifies the clip's content along with its path: the
+	 *         length of local files, the install time for bundled clips.
+	 */
+	private long getVideoStamp(Uri video) {
+		if ("file".equals(video.getScheme()))
+			return new File(video.getPath()).length();
+		return assetStamp;
+	}
+
+	private Bitmap decodeAsset(String path, BitmapFactory.Options options) throws IOException {
+		final InputStream in = assets.open(path);
+		try {
+			return BitmapFactory.decodeStream(in, null, options);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Scales the bitmap down to the smallest size that still covers the cell,
+	 * as the cells crop their images to fill them.
+	 * 
+	 * @param reusable
+	 *            true to put the source back to the pool, false to recycle
+	 *            it.
+	 */
+	private Bitmap scaleToCover(Bitmap bitmap, int width, int height, boolean reusable) {
+		if (width <= 0 || height <= 0)
+			return bitmap;
+		final float scale = Math.max((float) width / bitmap.getWidth(), (float) height / bitmap.getHeight());
+		if (scale >= 1)
+			return bitmap;
+		final int scaledWidth = Math.max(1, Math.round(bitmap.getWidth() * scale));
+		final int scaledHeight = Math.max(1, Math.round(bitmap.getHeight() * scale));
+		Bitmap scaled = pool.get(scaledWidth, scaledHeight, Bitmap.Config.ARGB_8888);
+		if (scaled == null)
+			scaled = Bitmap.createBitmap(scaledWidth, scaledHeight, Bitmap.Config.ARGB_8888);
+		new Canvas(scaled).drawBitmap(bitmap, null, new Rect(0, 0, scaledWidth, scaledHeight), SCALE_PAINT);
+		if (reusable)
+			pool.put(bitmap);
+		else
+			bitmap.recycle();
+		return scaled;
+	}
+
+	private class Request implements Runnable {
+		final String path;
+		final String key;
+		final ImageView view;
+		final int width;
+		final int height;
+		final long requestTime = System.currentTimeMillis();
+		/** The clip to take a poster frame of, or null for an asset */
+		Uri video;
+		/** What identifies the content along with the path */
+		long stamp = assetStamp;
+		volatile boolean cancelled;
+
+		Request(String path, String key, ImageView view, int width, int height) {
+			this.path = path;
+			this.key = key;
+			this.view = view;
+			this.width = width;
+			this.height = height;
+		}
+
+		@Override
+		public void run() {
+			if (cancelled)
+				return;
+			final ThumbnailAtlas atlas = video == null ? getAtlas() : null;
+			if (atlas != null && atlas.contains(path)) {
+				mainHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						if (cancelled || requests.get(view) != Request.this)
+							return;
+						requests.remove(view);
+						showRegion(view, atlas.newDrawable(path));
+					}
+				});
+				return;
+			}
+			// Holds a reference until the bitmap is shown
+			Bitmap bitmap = getCached(key);
+			if (bitmap == null) {
+				bitmap = diskCache.get(path, stamp, width, height);
+				if (bitmap != null) {
+					diskLoadLatency.record(System.currentTimeMillis() - requestTime);
+				} else if (video != null) {
+					final long start = System.currentTimeMillis();
+					bitmap = extractPoster(video, width, height);
+					if (bitmap == null)
+						return;
+					final long now = System.currentTimeMillis();
+					posterExtractLatency.record(now - start);
+					posterLoadLatency.record(now - requestTime);
+					diskCache.put(path, stamp, width, height, bitmap);
+				} else {
+					final long start = System.currentTimeMillis();
+					try {
+						bitmap = decode(path, width, height);
+					} catch (IOException e) {
+						Logger.e(TAG, "Cannot decode " + path, e);
+					}
+					if (bitmap == null)
+						return;
+					final long now = System.currentTimeMillis();
+					decodeLatency.record(now - start);
+					assetLoadLatency.record(now - requestTime);
+					diskCache.put(path, stamp, width, height, bitmap);
+				}
+				// One reference for the cache, one until shown
+				addReference(bitmap);
+				addReference(bitmap);
+				memoryCache.put(key, bitmap);
+			}
+			final Bitmap result = bitmap;
+			mainHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (cancelled || requests.get(view) != Request.this) {
+						releaseReference(result);
+						return;
+					}
+					requests.remove(view);
+					show(view, result);
+				}
+			});
+		}
+	}
+}
@@ -120,6 +120,32 @@ public class CameraHelper {
      */
     @TargetApi(Build.VERSION_CODES.GINGERBREAD)
     private static Camera getDefaultCamera(int position) {
+        int id = getDefaultCameraId(position);
+        return id == -1 ? null : Camera.open(id);
+    }
+
+    /**
+     * @return the id of the default front facing camera, or -1 if there is none.
+     */
+    public static int getDefaultFrontFacingCameraId() {
+        return getDefaultCameraId(Camera.CameraInfo.CAMERA_FACING_FRONT);
+    }
+
+    /**
+     * @return the id of the default rear/back facing camera, or -1 if there is none.
+     */
+    public static int getDefaultBackFacingCameraId() {
+        return getDefaultCameraId(Camera.CameraInfo.CAMERA_FACING_BACK);
+    }
+
+    /**
+     *
+     * @param position Physical position of the camera i.e Camera.CameraInfo.CAMERA_FACING_FRONT
+     *                 or Camera.CameraInfo.CAMERA_FACING_BACK.
+     * @return the id of the default camera at that position, or -1 if there is none.
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD)
+    public static int getDefaultCameraId(int position) {
         // Find the total number of cameras available
         int  mNumberOfCameras = Camera.getNumberOfCameras();
 
@@ -128,12 +154,11 @@ public class CameraHelper {
         for (int i = 0; i < mNumberOfCameras; i++) {
             Camera.getCameraInfo(i, cameraInfo);
             if (cameraInfo.facing == position) {
-                return Camera.open(i);
-
+                return i;
             }
         }
 
-        return null;
+        return -1;
     }
 
     /**
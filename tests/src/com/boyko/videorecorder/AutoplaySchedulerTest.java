@@ -0,0 +1,149 @@
+package com.boyko.videorecorder;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Plain JVM test of the autoplay policy with a fake decoder and clock.
+ */
+public class AutoplaySchedulerTest extends TestCase {
+
+	private static final long SLICE = 5000;
+
+	/**
+	 * Records which tiles play; tiles in {@link #noClip} cannot start.
+	 */
+	private static class FakeDecoder implements AutoplayScheduler.Decoder {
+		final Set<Long> playing = new HashSet<Long>();
+		final Set<Long> noClip = new HashSet<Long>();
+		int maxPlaying;
+
+		@Override
+		public boolean start(long tileId) {
+			if (noClip.contains(tileId))
+				return false;
+			assertTrue("started twice: " + tileId, playing.add(tileId));
+			maxPlaying = Math.max(maxPlaying, playing.size());
+			return true;
+		}
+
+		@Override
+		public void stop(long tileId) {
+			assertTrue("not playing: " + tileId, playing.remove(tileId));
+		}
+	}
+
+	private FakeDecoder decoder;
+	private AutoplayScheduler scheduler;
+	private long now;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		decoder = new FakeDecoder();
+		scheduler = new AutoplayScheduler(decoder, 2, SLICE);
+		now = 1000;
+	}
+
+	private static List<Long> tiles(long... ids) {
+		final List<Long> tiles = new ArrayList<Long>(ids.length);
+		for (long id : ids)
+			tiles.add(id);
+		return tiles;
+	}
+
+	public void testBudgetCapsDecoders() {
+		scheduler.setVisibleTiles(tiles(1, 2, 3, 4, 5), now);
+		assertEquals(2, decoder.playing.size());
+		assertEquals(tiles(1, 2), scheduler.getPlaying());
+
+		for (int i = 0; i < 20; i++) {
+			now += 1000;
+			scheduler.tick(now);
+			assertEquals(2, decoder.playing.size());
+		}
+		assertEquals(2, decoder.maxPlaying);
+	}
+
+	public void testFewerTilesThanBudgetAllPlay() {
+		scheduler.setVisibleTiles(tiles(1), now);
+		assertEquals(tiles(1), scheduler.getPlaying());
+		now += 3 * SLICE;
+		scheduler.tick(now);
+		// Nobody waits, so the tile keeps playing
+		assertEquals(tiles(1), scheduler.getPlaying());
+	}
+
+	public void testTilesWithoutClipNotCounted() {
+		decoder.noClip.add(1L);
+		scheduler.setVisibleTiles(tiles(1, 2, 3), now);
+		assertEquals(tiles(2, 3), scheduler.getPlaying());
+	}
+
+	public void testRotation() {
+		scheduler.setVisibleTiles(tiles(1, 2, 3, 4), now);
+		assertEquals(tiles(1, 2), scheduler.getPlaying());
+
+		now += SLICE - 1;
+		scheduler.tick(now);
+		assertEquals(tiles(1, 2), scheduler.getPlaying());
+
+		now += 1;
+		scheduler.tick(now);
+		// Both used up their slice and yield to the tiles that waited
+		assertEquals(new HashSet<Long>(tiles(3, 4)), decoder.playing);
+
+		now += SLICE;
+		scheduler.tick(now);
+		assertEquals(new HashSet<Long>(tiles(1, 2)), decoder.playing);
+	}
+
+	public void testEveryTileGetsATurn() {
+		scheduler.setVisibleTiles(tiles(1, 2, 3, 4, 5), now);
+		final Set<Long> played = new HashSet<Long>(decoder.playing);
+		for (int i = 0; i < 3; i++) {
+			now += SLICE;
+			scheduler.tick(now);
+			played.addAll(decoder.playing);
+		}
+		assertEquals(new HashSet<Long>(tiles(1, 2, 3, 4, 5)), played);
+	}
+
+	public void testLeavingTileStopsAtOnce() {
+		scheduler.setVisibleTiles(tiles(1, 2, 3), now);
+		assertEquals(tiles(1, 2), scheduler.getPlaying());
+
+		now += 10;
+		scheduler.setVisibleTiles(tiles(2, 3), now);
+		assertFalse(decoder.playing.contains(1L));
+		// The freed decoder goes to the waiting tile right away
+		assertEquals(new HashSet<Long>(tiles(2, 3)), decoder.playing);
+
+		scheduler.setVisibleTiles(tiles(), now);
+		assertTrue(decoder.playing.isEmpty());
+		assertTrue(scheduler.getPlaying().isEmpty());
+	}
+
+	public void testShrinkingBudgetStopsOldest() {
+		scheduler.setVisibleTiles(tiles(1, 2, 3), now);
+		scheduler.setBudget(1, now);
+		assertEquals(tiles(2), scheduler.getPlaying());
+		assertEquals(new HashSet<Long>(tiles(2)), decoder.playing);
+
+		scheduler.setBudget(3, now);
+		assertEquals(new HashSet<Long>(tiles(1, 2, 3)), decoder.playing);
+	}
+
+	public void testClearStopsAll() {
+		scheduler.setVisibleTiles(tiles(1, 2, 3), now);
+		scheduler.clear();
+		assertTrue(decoder.playing.isEmpty());
+		scheduler.tick(now + SLICE);
+		assertTrue(decoder.playing.isEmpty());
+		assertTrue(scheduler.getPlaying().isEmpty());
+	}
+}
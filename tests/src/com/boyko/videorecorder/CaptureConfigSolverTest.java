@@ -0,0 +1,105 @@
+package com.boyko.videorecorder;
+
+import junit.framework.TestCase;
+
+/**
+ * Plain JVM test: {@link CaptureConfigSolver} and {@link CameraCapabilities}
+ * have no Android dependencies.
+ */
+public class CaptureConfigSolverTest extends TestCase {
+
+	// CamcorderProfile.QUALITY_LOW and QUALITY_HIGH
+	private static final int QUALITY_LOW = 0;
+	private static final int QUALITY_HIGH = 1;
+	// Stands in for a mid-size quality such as QUALITY_480P
+	private static final int QUALITY_MEDIUM = 2;
+
+	private static final int[] PREVIEW_SIZES = { 1920, 1080, 1280, 720, 960, 720, 640, 480, 176, 144 };
+	private static final int[] VIDEO_SIZES = { 1920, 1080, 1280, 720, 640, 480, 176, 144 };
+	private static final int[] FPS_RANGES = { 15000, 15000, 7000, 30000, 30000, 30000 };
+	private static final int[] PROFILES = { QUALITY_LOW, 176, 144, 15, 192000, QUALITY_HIGH, 1920, 1080, 30,
+			17000000, QUALITY_MEDIUM, 960, 720, 30, 6000000 };
+
+	private static CameraCapabilities newCapabilities(int[] videoSizes) {
+		return new CameraCapabilities(0, 0, 90, PREVIEW_SIZES, videoSizes, FPS_RANGES, -12, 12, 0.5f, PROFILES);
+	}
+
+	public void testPreviewSizeIsRecorded() {
+		CaptureConfig config = CaptureConfigSolver.solve(newCapabilities(VIDEO_SIZES), 1280, 720, QUALITY_HIGH);
+		assertEquals(1920, config.previewWidth);
+		assertEquals(1080, config.previewHeight);
+		// The recorder expects the preview size, so it never restarts it
+		assertEquals(config.previewWidth, config.videoWidth);
+		assertEquals(config.previewHeight, config.videoHeight);
+	}
+
+	public void testSmallViewRecordsAtProfileSize() {
+		CaptureConfig config = CaptureConfigSolver.solve(newCapabilities(VIDEO_SIZES), 176, 144, QUALITY_HIGH);
+		assertEquals(1920, config.previewWidth);
+		assertEquals(1080, config.previewHeight);
+		assertEquals(1920, config.videoWidth);
+		assertEquals(1080, config.videoHeight);
+		assertEquals(17000000, config.bitRate);
+	}
+
+	public void testViewSizeBreaksTies() {
+		// 1920x1080 and 640x360 are equally far from the 1280x720 profile
+		int[] previewSizes = { 1920, 1080, 640, 360 };
+		int[] profiles = { QUALITY_HIGH, 1280, 720, 30, 8000000 };
+		CameraCapabilities caps = new CameraCapabilities(0, 0, 90, previewSizes, new int[0], FPS_RANGES, 0, 0, 0,
+				profiles);
+		assertEquals(360, CaptureConfigSolver.solve(caps, 320, 180, QUALITY_HIGH).previewHeight);
+		assertEquals(1080, CaptureConfigSolver.solve(caps, 1920, 1080, QUALITY_HIGH).previewHeight);
+	}
+
+	public void testRecordableSizePreferredOverCloserOne() {
+		// 960x720 is the profile size but cannot be recorded
+		CaptureConfig config = CaptureConfigSolver.solve(newCapabilities(VIDEO_SIZES), 1000, 750, QUALITY_MEDIUM);
+		assertEquals(640, config.previewWidth);
+		assertEquals(480, config.previewHeight);
+		assertEquals(config.previewWidth, config.videoWidth);
+		assertEquals(config.previewHeight, config.videoHeight);
+	}
+
+	public void testRecordsAtPreviewSizeWithoutVideoSizes() {
+		CaptureConfig config = CaptureConfigSolver.solve(newCapabilities(new int[0]), 1000, 750, QUALITY_MEDIUM);
+		assertEquals(960, config.previewWidth);
+		assertEquals(720, config.previewHeight);
+		assertEquals(config.previewWidth, config.videoWidth);
+		assertEquals(config.previewHeight, config.videoHeight);
+	}
+
+	public void testProfileScaledToVideoSize() {
+		CaptureConfig config = CaptureConfigSolver.solve(newCapabilities(VIDEO_SIZES), 1000, 750, QUALITY_MEDIUM);
+		assertEquals(QUALITY_MEDIUM, config.profileQuality);
+		assertEquals(30, config.frameRate);
+		assertEquals((int) (6000000L * 640 * 480 / (960 * 720)), config.bitRate);
+		// Narrowest range containing the frame rate
+		assertEquals(30000, config.minFps);
+		assertEquals(30000, config.maxFps);
+	}
+
+	public void testFallsBackToFirstProfile() {
+		CaptureConfig config = CaptureConfigSolver.solve(newCapabilities(VIDEO_SIZES), 176, 144, 5);
+		assertEquals(QUALITY_LOW, config.profileQuality);
+		assertEquals(15, config.frameRate);
+		assertEquals(15000, config.minFps);
+		assertEquals(15000, config.maxFps);
+	}
+
+	public void testNoPreviewSizes() {
+		CameraCapabilities caps = new CameraCapabilities(0, 0, 90, new int[0], new int[0], FPS_RANGES, 0, 0, 0,
+				PROFILES);
+		assertNull(CaptureConfigSolver.solve(caps, 1280, 720, QUALITY_HIGH));
+	}
+
+	public void testMemoized() {
+		CameraCapabilities caps = newCapabilities(VIDEO_SIZES);
+		CaptureConfig config = CaptureConfigSolver.solve(caps, 1280, 720, QUALITY_HIGH);
+		assertSame(config, CaptureConfigSolver.solve(caps, 1280, 720, QUALITY_HIGH));
+		assertNotSame(config, CaptureConfigSolver.solve(caps, 720, 1280, QUALITY_HIGH));
+		assertNotSame(config, CaptureConfigSolver.solve(caps, 1280, 720, QUALITY_LOW));
+		// Capabilities are keyed by identity
+		assertNotSame(config, CaptureConfigSolver.solve(newCapabilities(VIDEO_SIZES), 1280, 720, QUALITY_HIGH));
+	}
+}
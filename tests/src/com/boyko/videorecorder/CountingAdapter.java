@@ -0,0 +1,49 @@
+package com.boyko.videorecorder;
+
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+
+/**
+ * Adapter of plain views that counts the views it creates, i.e. the calls to
+ * getView without a convertView to rebind.
+ */
+class CountingAdapter extends BaseAdapter {
+
+	private final int count;
+	private final boolean stableIds;
+	int created;
+
+	CountingAdapter(int count, boolean stableIds) {
+		this.count = count;
+		this.stableIds = stableIds;
+	}
+
+	@Override
+	public int getCount() {
+		return count;
+	}
+
+	@Override
+	public Object getItem(int position) {
+		return position;
+	}
+
+	@Override
+	public long getItemId(int position) {
+		return position;
+	}
+
+	@Override
+	public boolean hasStableIds() {
+		return stableIds;
+	}
+
+	@Override
+	public View getView(int position, View convertView, ViewGroup parent) {
+		if (convertView != null)
+			return convertView;
+		created++;
+		return new View(parent.getContext());
+	}
+}
@@ -0,0 +1,153 @@
+package com.boyko.videorecorder;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.view.MotionEvent;
+import android.view.View.MeasureSpec;
+import android.view.ViewConfiguration;
+
+public class CustomAdapterViewTest extends AndroidTestCase {
+
+	/** Three rows of 100 pixels are visible */
+	private static final int WIDTH = 300;
+	private static final int HEIGHT = 300;
+	/**
+	 * Children of the visible rows, one more partly visible while scrolling,
+	 * and one offscreen row on each side
+	 */
+	private static final int MAX_CHILDREN = (3 + 1 + 2) * 3;
+
+	private CustomAdapterView view;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		view = new CustomAdapterView(getContext());
+	}
+
+	private void layout() {
+		view.measure(MeasureSpec.makeMeasureSpec(WIDTH, MeasureSpec.EXACTLY),
+				MeasureSpec.makeMeasureSpec(HEIGHT, MeasureSpec.EXACTLY));
+		view.layout(0, 0, WIDTH, HEIGHT);
+	}
+
+	public void testUnchangedDataNotInflatedAgain() {
+		final CountingAdapter adapter = new CountingAdapter(9, false);
+		view.setAdapter(adapter);
+		layout();
+		assertTrue(view.getChildCount() > 0);
+
+		adapter.created = 0;
+		adapter.notifyDataSetChanged();
+		layout();
+		assertEquals(0, adapter.created);
+		assertEquals(9, view.getChildCount());
+	}
+
+	public void testUnchangedDataNotInflatedAgainWithStableIds() {
+		final CountingAdapter adapter = new CountingAdapter(9, true);
+		view.setAdapter(adapter);
+		layout();
+
+		adapter.created = 0;
+		adapter.notifyDataSetChanged();
+		layout();
+		assertEquals(0, adapter.created);
+		assertEquals(9, view.getChildCount());
+	}
+
+	public void testRelayoutWithoutChangeNotInflated() {
+		final CountingAdapter adapter = new CountingAdapter(9, false);
+		view.setAdapter(adapter);
+		layout();
+
+		adapter.created = 0;
+		view.requestLayout();
+		layout();
+		assertEquals(0, adapter.created);
+	}
+
+	public void testSteadyChildCountWhileScrolling() {
+		final CountingAdapter adapter = new CountingAdapter(10000, false);
+		view.setAdapter(adapter);
+		layout();
+		assertTrue(view.getChildCount() <= MAX_CHILDREN);
+
+		int minChildren = Integer.MAX_VALUE;
+		int steps = 0;
+		while (view.scrollContentBy(37)) {
+			final int children = view.getChildCount();
+			assertTrue("children " + children, children <= MAX_CHILDREN);
+			// Away from the ends both offscreen rows exist
+			if (view.getFirstVisiblePosition() > 0 && view.getLastVisiblePosition() < 9999 - 3)
+				minChildren = Math.min(minChildren, children);
+			steps++;
+		}
+		assertTrue(steps > 1000);
+		assertEquals(9999, view.getLastVisiblePosition());
+		// Five or six rows, whether a row is partly visible or not
+		assertTrue("min " + minChildren, minChildren >= MAX_CHILDREN - 3);
+		// Views are recycled, not created per row
+		assertTrue("created " + adapter.created, adapter.created <= MAX_CHILDREN);
+	}
+
+	public void testDataChangeOnLargeListInflatesNothing() {
+		final CountingAdapter adapter = new CountingAdapter(10000, true);
+		view.setAdapter(adapter);
+		layout();
+		for (int i = 0; i < 100; i++)
+			view.scrollContentBy(1000);
+		final int firstPosition = view.getFirstPosition();
+
+		adapter.created = 0;
+		adapter.notifyDataSetChanged();
+		layout();
+		assertEquals(0, adapter.created);
+		assertEquals(firstPosition, view.getFirstPosition());
+		assertTrue(view.getChildCount() <= MAX_CHILDREN);
+	}
+
+	@SuppressWarnings("deprecation")
+	public void testMoveEventsDoNotAllocate() {
+		view.setAdapter(new CountingAdapter(100, false));
+		// As the window would, so the view handles touches
+		view.onAttachedToWindow();
+		try {
+			layout();
+			// The moves below then scroll within the same rows
+			view.scrollContentBy(150);
+
+			final int warmUp = 10;
+			final int counted = 30;
+			final int startY = 150;
+			final int slop = ViewConfiguration.get(getContext()).getScaledTouchSlop();
+			final long downTime = SystemClock.uptimeMillis();
+			final MotionEvent down = MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, 150, startY, 0);
+			final MotionEvent[] moves = new MotionEvent[warmUp + counted];
+			for (int i = 0; i < moves.length; i++) {
+				// The first move leaves the touch slop, the others scroll by
+				// a pixel each
+				moves[i] = MotionEvent.obtain(downTime, downTime + 10 * (i + 1), MotionEvent.ACTION_MOVE, 150,
+						startY - slop - 1 - i, 0);
+			}
+
+			view.onTouchEvent(down);
+			for (int i = 0; i < warmUp; i++)
+				view.onTouchEvent(moves[i]);
+
+			Debug.resetThreadAllocCount();
+			Debug.startAllocCounting();
+			for (int i = warmUp; i < moves.length; i++)
+				view.onTouchEvent(moves[i]);
+			Debug.stopAllocCounting();
+			assertEquals(0, Debug.getThreadAllocCount());
+
+			down.recycle();
+			for (MotionEvent move : moves)
+				move.recycle();
+		} finally {
+			view.onDetachedFromWindow();
+		}
+	}
+}
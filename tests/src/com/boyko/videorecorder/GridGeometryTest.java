@@ -0,0 +1,102 @@
+package com.boyko.videorecorder;
+
+import junit.framework.TestCase;
+
+/**
+ * Plain JVM test: {@link GridGeometry} has no Android dependencies.
+ */
+public class GridGeometryTest extends TestCase {
+
+	/** Three columns and rows of 100 pixels with 10 pixels between them */
+	private static final int SIZE = 320;
+	private static final int SPACING = 10;
+	private static final int STRIDE = 110;
+
+	private GridGeometry geometry;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		geometry = new GridGeometry(3, 3, SPACING, SPACING);
+		assertTrue(geometry.setSize(SIZE, SIZE));
+	}
+
+	public void testCellSize() {
+		assertEquals(100, geometry.getColumnWidth());
+		assertEquals(100, geometry.getRowHeight());
+		assertFalse(geometry.setSize(SIZE, SIZE));
+	}
+
+	public void testPointInCells() {
+		assertEquals(0, geometry.pointToPosition(0, 0, 0, 9));
+		assertEquals(0, geometry.pointToPosition(99, 99, 0, 9));
+		assertEquals(1, geometry.pointToPosition(STRIDE, 0, 0, 9));
+		assertEquals(5, geometry.pointToPosition(2 * STRIDE + 99, STRIDE + 50, 0, 9));
+		assertEquals(8, geometry.pointToPosition(SIZE - 1, SIZE - 1, 0, 9));
+	}
+
+	public void testPointInSpacing() {
+		// Between the first two columns
+		assertEquals(GridGeometry.INVALID_POSITION, geometry.pointToPosition(100, 50, 0, 9));
+		assertEquals(GridGeometry.INVALID_POSITION, geometry.pointToPosition(STRIDE - 1, 50, 0, 9));
+		// Between the first two rows
+		assertEquals(GridGeometry.INVALID_POSITION, geometry.pointToPosition(50, 100, 0, 9));
+		assertEquals(GridGeometry.INVALID_POSITION, geometry.pointToPosition(50, STRIDE - 1, 0, 9));
+	}
+
+	public void testPointOutsideView() {
+		assertEquals(GridGeometry.INVALID_POSITION, geometry.pointToPosition(-1, 0, 0, 9));
+		assertEquals(GridGeometry.INVALID_POSITION, geometry.pointToPosition(0, -1, 0, 9));
+		assertEquals(GridGeometry.INVALID_POSITION, geometry.pointToPosition(SIZE, 0, 0, 9));
+		assertEquals(GridGeometry.INVALID_POSITION, geometry.pointToPosition(0, SIZE, 0, 9));
+	}
+
+	public void testLastPartialRow() {
+		// Seven items: the third row only has its first cell
+		assertEquals(3, geometry.getRowCount(7));
+		assertEquals(6, geometry.pointToPosition(50, 2 * STRIDE + 50, 0, 7));
+		assertEquals(GridGeometry.INVALID_POSITION, geometry.pointToPosition(STRIDE + 50, 2 * STRIDE + 50, 0, 7));
+		assertEquals(GridGeometry.INVALID_POSITION, geometry.pointToPosition(2 * STRIDE + 50, 2 * STRIDE + 50, 0, 7));
+		assertEquals(3 * 100 + 2 * SPACING, geometry.getContentHeight(7));
+	}
+
+	public void testPastCount() {
+		assertEquals(GridGeometry.INVALID_POSITION, geometry.pointToPosition(50, 50, 0, 0));
+		assertEquals(GridGeometry.INVALID_POSITION, geometry.pointToPosition(50, STRIDE + 50, 0, 3));
+		assertEquals(2, geometry.pointToPosition(2 * STRIDE + 50, 50, 0, 3));
+	}
+
+	public void testScrollOffset() {
+		// Scrolled by a row and a half: the top of the view is in the middle
+		// of row 1
+		final int scrollY = STRIDE + 50;
+		assertEquals(3, geometry.pointToPosition(50, 0, scrollY, 30));
+		assertEquals(3, geometry.pointToPosition(50, 49, scrollY, 30));
+		// The spacing below row 1, then row 2
+		assertEquals(GridGeometry.INVALID_POSITION, geometry.pointToPosition(50, 50, scrollY, 30));
+		assertEquals(6, geometry.pointToPosition(50, 60, scrollY, 30));
+		assertEquals(1, geometry.getRowAt(scrollY));
+		assertEquals(-50, geometry.getCellTop(3, scrollY));
+		assertEquals(60, geometry.getCellTop(6, scrollY));
+	}
+
+	public void testCellBounds() {
+		final int[] bounds = new int[4];
+		geometry.getCellBounds(4, 20, bounds);
+		assertEquals(STRIDE, bounds[0]);
+		assertEquals(STRIDE - 20, bounds[1]);
+		assertEquals(STRIDE + 100, bounds[2]);
+		assertEquals(STRIDE - 20 + 100, bounds[3]);
+		// Round trip through the middle of the cell
+		assertEquals(4, geometry.pointToPosition(bounds[0] + 50, bounds[1] + 50, 20, 9));
+	}
+
+	public void testMaxScroll() {
+		assertEquals(0, geometry.getMaxScrollY(0));
+		assertEquals(0, geometry.getMaxScrollY(9));
+		// Ten rows
+		assertEquals(10 * 100 + 9 * SPACING - SIZE, geometry.getMaxScrollY(30));
+		assertEquals(0, geometry.getRowAt(-5));
+		assertEquals(9, geometry.getRowAt(geometry.getContentHeight(30) - 1));
+	}
+}
@@ -0,0 +1,76 @@
+package com.boyko.videorecorder;
+
+import junit.framework.TestCase;
+import android.util.Log;
+
+/**
+ * Micro-benchmark of disabled log sites: a message built by concatenation,
+ * the deferred-formatting overload and a call guarded by
+ * {@link Logger#isLoggable(String, int)}. The timings are logged under
+ * {@link #TAG}; the test fails if skipping a record costs anywhere near as
+ * much as building its message.
+ */
+public class LoggerBenchmarkTest extends TestCase {
+
+	private static final String TAG = "LoggerBenchmark";
+	/** Tag of the log sites measured, disabled below info */
+	private static final String SITE_TAG = "LoggerBenchmarkSite";
+	private static final int CALLS = 200000;
+	private static final int RUNS = 3;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		Logger.setLevel(SITE_TAG, Log.INFO);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Logger.clearLevel(SITE_TAG);
+		super.tearDown();
+	}
+
+	public void testDisabledSitesCostNearlyNothing() {
+		long concat = Long.MAX_VALUE;
+		long deferred = Long.MAX_VALUE;
+		long guarded = Long.MAX_VALUE;
+		// Best of a few runs, the first ones include warm-up
+		for (int run = 0; run < RUNS; run++) {
+			concat = Math.min(concat, timeConcatenated());
+			deferred = Math.min(deferred, timeDeferred());
+			guarded = Math.min(guarded, timeGuarded());
+		}
+		Log.i(TAG, "ns per disabled call: concatenated " + concat / CALLS + ", deferred " + deferred / CALLS
+				+ ", guarded " + guarded / CALLS);
+		assertTrue("deferred " + deferred + " ns, concatenated " + concat + " ns", deferred * 5 < concat);
+		assertTrue("guarded " + guarded + " ns, concatenated " + concat + " ns", guarded * 5 < concat);
+	}
+
+	private static long timeConcatenated() {
+		final float max = 1000;
+		final long start = System.nanoTime();
+		for (int i = 0; i < CALLS; i++)
+			Logger.d(SITE_TAG, (float) i + "/" + max);
+		return System.nanoTime() - start;
+	}
+
+	private static long timeDeferred() {
+		// Arguments that are objects already, so nothing is boxed
+		final String sensor = "light";
+		final Float max = 1000f;
+		final long start = System.nanoTime();
+		for (int i = 0; i < CALLS; i++)
+			Logger.d(SITE_TAG, "%s/%s", sensor, max);
+		return System.nanoTime() - start;
+	}
+
+	private static long timeGuarded() {
+		final float max = 1000;
+		final long start = System.nanoTime();
+		for (int i = 0; i < CALLS; i++) {
+			if (Logger.DEBUG && Logger.isLoggable(SITE_TAG, Log.DEBUG))
+				Logger.d(SITE_TAG, "light %s/%s", (float) i, max);
+		}
+		return System.nanoTime() - start;
+	}
+}
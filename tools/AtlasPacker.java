@@ -0,0 +1,188 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Build step that packs the friend images in {@code atlas-src} into one
+ * asset, read at runtime by {@code com.boyko.videorecorder.ThumbnailAtlas}.
+ * Each image is scaled down so its shorter side is the tile size and center
+ * cropped to at most {@link #MAX_ASPECT}, as the grid crops anything beyond
+ * that anyway. The images are then packed in rows onto one sheet, stored as a
+ * single JPEG after an index of regions.
+ * <p>
+ * Layout, big endian: magic "ATLS", format version, entry count (short), per
+ * entry the image name (modified UTF-8) and x, y, width, height (shorts),
+ * then the length of the sheet and the JPEG sheet itself.
+ * <p>
+ * The ant build runs it before compiling whenever the images or the packer
+ * changed (see custom_rules.xml). By hand, from the project root:
+ *
+ * <pre>
+ * javac -d bin/tools tools/AtlasPacker.java
+ * java -cp bin/tools AtlasPacker atlas-src assets/thumbs.atlas
+ * </pre>
+ */
+public class AtlasPacker {
+
+	/** Must match ThumbnailAtlas */
+	private static final int MAGIC = 0x41544C53; // "ATLS"
+	private static final int FORMAT_VERSION = 1;
+
+	private static final int DEFAULT_TILE_SIZE = 256;
+	private static final int SHEET_WIDTH = 1024;
+	/** Longer side over shorter side kept of each image */
+	private static final float MAX_ASPECT = 2;
+	private static final float JPEG_QUALITY = 0.9f;
+
+	private static class Entry {
+		String name;
+		BufferedImage image;
+		int x;
+		int y;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: AtlasPacker <source dir> <output file> [tile size]");
+			System.exit(1);
+		}
+		final File sourceDir = new File(args[0]);
+		final File output = new File(args[1]);
+		final int tileSize = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_TILE_SIZE;
+
+		final String[] names = sourceDir.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				final String lower = name.toLowerCase();
+				return lower.endsWith(".jpg") || lower.endsWith(".png");
+			}
+		});
+		if (names == null || names.length == 0) {
+			System.err.println("No images in " + sourceDir);
+			System.exit(1);
+		}
+		Arrays.sort(names);
+
+		final List<Entry> entries = new ArrayList<Entry>();
+		for (String name : names) {
+			final BufferedImage source = ImageIO.read(new File(sourceDir, name));
+			if (source == null) {
+				System.err.println("Skipping unreadable " + name);
+				continue;
+			}
+			final Entry entry = new Entry();
+			entry.name = name;
+			entry.image = scale(source, tileSize);
+			entries.add(entry);
+		}
+
+		final int sheetHeight = pack(entries);
+		final BufferedImage sheet = new BufferedImage(SHEET_WIDTH, sheetHeight, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D g = sheet.createGraphics();
+		for (Entry entry : entries)
+			g.drawImage(entry.image, entry.x, entry.y, null);
+		g.dispose();
+
+		final byte[] jpeg = encodeJpeg(sheet);
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeShort(entries.size());
+			for (Entry entry : entries) {
+				out.writeUTF(entry.name);
+				out.writeShort(entry.x);
+				out.writeShort(entry.y);
+				out.writeShort(entry.image.getWidth());
+				out.writeShort(entry.image.getHeight());
+			}
+			out.writeInt(jpeg.length);
+			out.write(jpeg);
+		} finally {
+			out.close();
+		}
+		System.out.println("Packed " + entries.size() + " images into " + SHEET_WIDTH + "x" + sheetHeight + ", "
+				+ output.length() + " bytes");
+	}
+
+	/**
+	 * Scales the image down so its shorter side is the tile size, smaller
+	 * images keep their size, and crops the center of overly long images.
+	 */
+	private static BufferedImage scale(BufferedImage source, int tileSize) {
+		final int shorter = Math.min(source.getWidth(), source.getHeight());
+		final int maxLonger = Math.round(shorter * MAX_ASPECT);
+		final int cropWidth = Math.min(source.getWidth(), maxLonger);
+		final int cropHeight = Math.min(source.getHeight(), maxLonger);
+		final int cropX = (source.getWidth() - cropWidth) / 2;
+		final int cropY = (source.getHeight() - cropHeight) / 2;
+
+		final float scale = Math.min(1f, (float) tileSize / shorter);
+		final int width = Math.min(SHEET_WIDTH, Math.max(1, Math.round(cropWidth * scale)));
+		final int height = Math.max(1, Math.round(cropHeight * scale));
+		final BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D g = scaled.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+		g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		g.drawImage(source, 0, 0, width, height, cropX, cropY, cropX + cropWidth, cropY + cropHeight, null);
+		g.dispose();
+		return scaled;
+	}
+
+	/**
+	 * Places the entries left to right in rows as tall as their tallest
+	 * entry.
+	 * 
+	 * @return the sheet height.
+	 */
+	private static int pack(List<Entry> entries) {
+		int x = 0;
+		int y = 0;
+		int rowHeight = 0;
+		for (Entry entry : entries) {
+			if (x + entry.image.getWidth() > SHEET_WIDTH) {
+				x = 0;
+				y += rowHeight;
+				rowHeight = 0;
+			}
+			entry.x = x;
+			entry.y = y;
+			x += entry.image.getWidth();
+			rowHeight = Math.max(rowHeight, entry.image.getHeight());
+		}
+		return y + rowHeight;
+	}
+
+	private static byte[] encodeJpeg(BufferedImage image) throws IOException {
+		final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		final ImageWriteParam param = writer.getDefaultWriteParam();
+		param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		param.setCompressionQuality(JPEG_QUALITY);
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ImageOutputStream out = ImageIO.createImageOutputStream(bytes);
+		try {
+			writer.setOutput(out);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			out.close();
+			writer.dispose();
+		}
+		return bytes.toByteArray();
+	}
+}